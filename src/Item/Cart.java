@@ -62,6 +62,14 @@ public class Cart {
         return total;
     }
 
+    public long getTotalUnits() {
+        long total = 0;
+        for (CartItem item : items) {
+            total += item.getTotalUnits();
+        }
+        return total;
+    }
+
     public  HashSet<CartItem> getItems() {
         return items;
     }
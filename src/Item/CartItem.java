@@ -1,5 +1,8 @@
 package Item;
 
+import Utils.IdAllocator;
+import Utils.Money;
+
 import java.util.Objects;
 
 public class CartItem {
@@ -7,7 +10,7 @@ public class CartItem {
     private int quantity;
     private final ItemStock itemStock;
 
-    private static int currentId = 50_000; // id range: 50_000 -> 59_999
+    private static final IdAllocator ids = new IdAllocator(50_000); // id range: 50_001 -> 59_999, 150_001 -> ...
 
 
     public CartItem(int quantity, ItemStock itemStock) {
@@ -16,10 +19,7 @@ public class CartItem {
         }
         this.quantity = quantity;
         this.itemStock = itemStock;
-        id = ++currentId;
-        if ((currentId - 59_999) % 100_000 == 0) {
-            currentId += 100_000 - 9999;
-        }
+        id = ids.allocate();
     }
 
     public int getId() {
@@ -38,6 +38,11 @@ public class CartItem {
         return itemStock.getPrice() * quantity;
     }
 
+    // The price in minor units, see Money
+    public long getTotalUnits() {
+        return Money.toUnits(itemStock.getPrice()) * quantity;
+    }
+
     public void setQuantity(int quantity) {
         this.quantity = Math.min(quantity, itemStock.getQuantity());
     }
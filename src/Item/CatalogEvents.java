@@ -0,0 +1,45 @@
+package Item;
+
+import Shop.Shop;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Fired by Shop.addItem, Shop.removeItem, ItemStock.rename, ItemStock.setPrice, ItemStock.setQuantity,
+// ItemStock.reserve and ItemStock.release (the last two as quantityChanged).
+// Loading and journal replay put stock in place without going through them; indexes are built from the loaded
+// state and then kept up to date from here.
+public final class CatalogEvents {
+    private static final List<CatalogListener> listeners = new CopyOnWriteArrayList<>();
+
+    private CatalogEvents() {
+    }
+
+    public static void addListener(CatalogListener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(CatalogListener listener) {
+        listeners.remove(listener);
+    }
+
+    public static void stockAdded(Shop shop, ItemStock itemStock) {
+        for (CatalogListener listener : listeners) listener.stockAdded(shop, itemStock);
+    }
+
+    public static void stockRemoved(Shop shop, ItemStock itemStock) {
+        for (CatalogListener listener : listeners) listener.stockRemoved(shop, itemStock);
+    }
+
+    public static void stockRenamed(ItemStock itemStock, String oldName) {
+        for (CatalogListener listener : listeners) listener.stockRenamed(itemStock, oldName);
+    }
+
+    public static void stockChanged(ItemStock itemStock) {
+        for (CatalogListener listener : listeners) listener.stockChanged(itemStock);
+    }
+
+    public static void quantityChanged(ItemStock itemStock) {
+        for (CatalogListener listener : listeners) listener.quantityChanged(itemStock);
+    }
+}
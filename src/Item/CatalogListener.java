@@ -0,0 +1,22 @@
+package Item;
+
+import Shop.Shop;
+
+// Told about changes to what the shops sell, so that indexes over the catalog can follow them.
+// Register with CatalogEvents. Calls come from the thread making the change.
+public interface CatalogListener {
+    void stockAdded(Shop shop, ItemStock itemStock);
+
+    void stockRemoved(Shop shop, ItemStock itemStock);
+
+    void stockRenamed(ItemStock itemStock, String oldName);
+
+    // The price or the quantity changed
+    void stockChanged(ItemStock itemStock);
+
+    // Units taken or given back by a cart (ItemStock.reserve, ItemStock.release). Checkouts call this in parallel
+    // and hold no lock, so an index that locks should only note the stock here and catch up before its next read
+    default void quantityChanged(ItemStock itemStock) {
+        stockChanged(itemStock);
+    }
+}
@@ -1,15 +1,21 @@
 package Item;
 
+import Utils.Utils;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class Item {
     
-    private String name;
+    private volatile String name;
+
+    @JsonIgnore
+    private volatile String searchKey; // Utils.searchKey of the name
 
     @JsonCreator
     public Item(@JsonProperty("name")  String name) {
         this.name = name;
+        this.searchKey = name == null ? null : Utils.searchKey(name);
     }
 
     public  String getName() {
@@ -18,5 +24,10 @@ public class Item {
 
     public void setName( String name) {
         this.name = name;
+        this.searchKey = name == null ? null : Utils.searchKey(name);
+    }
+
+    public String searchKey() {
+        return searchKey;
     }
 }
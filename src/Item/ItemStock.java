@@ -1,26 +1,45 @@
 package Item;
 
 import Shop.Shop;
+import Utils.IdAllocator;
 import com.fasterxml.jackson.annotation.JsonBackReference;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Objects;
 
 public class ItemStock {
     private final int id;
     
     private final Item item;
-    private double price;
-    private int quantity;
+    // read without locks; quantity is taken and given back by compare-and-set (reserve, release), the other changes
+    // that depend on the current value are made with the shop locked
+    private volatile double price;
+    private volatile int quantity;
     @JsonBackReference
-    private Shop shop;
+    private volatile Shop shop;
+    private int stockNumber; // place in the stock order of its shop, given by the shop
 
-    private static int currentId = 30_000; // range: 30_000 -> 39_999
+    private static final IdAllocator ids = new IdAllocator(30_000); // range: 30_001 -> 39_999, 130_001 -> 139_999, ...
 
+    private static final VarHandle QUANTITY;
+
+    static {
+        try {
+            QUANTITY = MethodHandles.lookup().findVarHandle(ItemStock.class, "quantity", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Shop may be null here, it is set when the stock is attached to its shop, which also registers the stock.
+    // Neither constructor registers: stock created for a shop is registered by its creator once it is built
     @JsonCreator
-    private ItemStock(
+    public ItemStock(
             @JsonProperty("id") int id,
             @JsonProperty("item")  Item item,
             @JsonProperty("price") double price,
@@ -32,9 +51,7 @@ public class ItemStock {
         this.quantity = quantity;
         this.shop = shop;
         this.id = id;
-        if (id > currentId) {
-            currentId = id;
-        }
+        ids.restore(id);
     }
 
     public ItemStock( Item item, double price, int quantity,  Shop shop) {
@@ -42,10 +59,12 @@ public class ItemStock {
         this.price = price;
         this.quantity = quantity;
         this.shop = shop;
-        id = ++currentId;
-        if ((currentId - 39_999) % 100_000 == 0) {
-            currentId += 100_000 - 9999;
-        }
+        id = ids.allocate();
+    }
+
+    // Keeps new ids above the ones of stock that is saved but has no object yet
+    public static void reserveIdsUpTo(int id) {
+        ids.restore(id);
     }
 
     public int getId() {
@@ -56,12 +75,20 @@ public class ItemStock {
         return item;
     }
 
+    // Renames the item and tells the catalog listeners, use this rather than Item.setName on stock that is for sale
+    public void rename(String name) {
+        String oldName = item.getName();
+        item.setName(name);
+        CatalogEvents.stockRenamed(this, oldName);
+    }
+
     public double getPrice() {
         return price;
     }
 
     public void setPrice(double price) {
         this.price = price;
+        CatalogEvents.stockChanged(this);
     }
 
     public int getQuantity() {
@@ -70,14 +97,45 @@ public class ItemStock {
 
     public void setQuantity(int quantity) {
         this.quantity = quantity;
+        CatalogEvents.stockChanged(this);
+    }
+
+    // Takes count units if that many are left, never letting the quantity go below zero
+    public boolean reserve(int count) {
+        if (count <= 0) return false;
+        int current;
+        do {
+            current = quantity;
+            if (current < count) return false;
+        } while (!QUANTITY.compareAndSet(this, current, current - count));
+        CatalogEvents.quantityChanged(this);
+        return true;
+    }
+
+    // Gives back units taken by reserve
+    public void release(int count) {
+        if (count <= 0) return;
+        QUANTITY.getAndAdd(this, count);
+        CatalogEvents.quantityChanged(this);
     }
 
     public Shop getShop() {
         return shop;
     }
 
+    // Numbers the stock of a shop in the order the shop got it, ids do not follow that order
+    @JsonIgnore
+    public int getStockNumber() {
+        return stockNumber;
+    }
+
+    public void setStockNumber(int stockNumber) {
+        this.stockNumber = stockNumber;
+    }
+
     public void setShop( Shop shop) {
         this.shop = shop;
+        if (shop != null) StockRegistry.register(this);
     }
 
     @Override
@@ -0,0 +1,102 @@
+package Item;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+// Stock taken for the lines of a cart, all of them or none. Each line is reserved on its ItemStock by
+// compare-and-set, in ascending stock id order so that two carts wanting the same stock do not each take half of it
+// and both fail; when a line cannot be had, the lines taken so far are released again. No lock is held meanwhile.
+public final class Reservation {
+    public enum Status {
+        RESERVED,
+        OUT_OF_STOCK, // fewer units left than requested
+        RELEASED,     // was reserved, given back because another line failed
+        NOT_TRIED     // not reached, another line failed first
+    }
+
+    // available is the quantity seen when the line was tried
+    public record Line(CartItem cartItem, Status status, int available) {
+    }
+
+    private final List<Line> lines; // in the order the cart items were given
+    private final boolean complete;
+
+    private Reservation(List<Line> lines, boolean complete) {
+        this.lines = lines;
+        this.complete = complete;
+    }
+
+    public static Reservation reserve(Collection<CartItem> cartItems) {
+        List<CartItem> items = new ArrayList<>(cartItems);
+        Integer[] byStock = new Integer[items.size()]; // positions in items, by stock id
+        for (int i = 0; i < byStock.length; i++) byStock[i] = i;
+        Arrays.sort(byStock, Comparator.comparingInt(i -> items.get(i).getItemStock().getId()));
+
+        Status[] status = new Status[items.size()];
+        int[] available = new int[items.size()];
+        Arrays.fill(status, Status.NOT_TRIED);
+        int taken = 0;
+        for (; taken < byStock.length; taken++) {
+            int at = byStock[taken];
+            ItemStock itemStock = items.get(at).getItemStock();
+            available[at] = itemStock.getQuantity();
+            if (!itemStock.reserve(items.get(at).getQuantity())) {
+                status[at] = Status.OUT_OF_STOCK;
+                break;
+            }
+            status[at] = Status.RESERVED;
+        }
+
+        boolean complete = taken == byStock.length;
+        if (!complete) {
+            for (int i = 0; i < taken; i++) {
+                int at = byStock[i];
+                items.get(at).getItemStock().release(items.get(at).getQuantity());
+                status[at] = Status.RELEASED;
+            }
+        }
+
+        List<Line> lines = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            lines.add(new Line(items.get(i), status[i], available[i]));
+        }
+        return new Reservation(lines, complete);
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public List<Line> getLines() {
+        return lines;
+    }
+
+    // Gives back a complete reservation whose order could not be made after all
+    public void release() {
+        if (!complete) return;
+        for (Line line : lines) {
+            line.cartItem().getItemStock().release(line.cartItem().getQuantity());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Line line : lines) {
+            CartItem cartItem = line.cartItem();
+            builder.append("- ").append(cartItem.getItemStock().getItem().getName())
+                    .append(" x").append(cartItem.getQuantity()).append(": ");
+            switch (line.status()) {
+                case RESERVED -> builder.append("reserved");
+                case OUT_OF_STOCK -> builder.append("only ").append(line.available()).append(" left");
+                case RELEASED -> builder.append("could be reserved");
+                case NOT_TRIED -> builder.append("not checked");
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,45 @@
+package Item;
+
+import Shop.Shop;
+import Utils.ConcurrentIntObjectMap;
+
+// Every ItemStock that belongs to a shop, by id.
+// A stock is added as soon as it has a shop, whether it was just created by Shop.addItem, read by a snapshot loader
+// or the journal, or brought in from a catalog, and it leaves with Shop.removeItem. Stock still sitting unread in
+// a catalog is not here; the catalog's own id index answers for it.
+// Lookups come from every search and order, so the map is a lock-striped ConcurrentIntObjectMap: they never wait
+// for each other and the int ids are not boxed.
+public final class StockRegistry {
+    private static final ConcurrentIntObjectMap<ItemStock> stocks = new ConcurrentIntObjectMap<>(1024);
+
+    private StockRegistry() {
+    }
+
+    public static ItemStock find(int itemStockId) {
+        return stocks.get(itemStockId);
+    }
+
+    // The shop selling the stock, null if the stock is not registered
+    public static Shop shopOf(int itemStockId) {
+        ItemStock itemStock = stocks.get(itemStockId);
+        return itemStock == null ? null : itemStock.getShop();
+    }
+
+    public static int size() {
+        return stocks.size();
+    }
+
+    public static void register(ItemStock itemStock) {
+        stocks.put(itemStock.getId(), itemStock);
+    }
+
+    public static void unregister(ItemStock itemStock) {
+        // only the registered object, a detached copy with the same id must not take the real one out
+        stocks.remove(itemStock.getId(), itemStock);
+    }
+
+    // Forgets everything, for when loaded data is thrown away
+    public static void clear() {
+        stocks.clear();
+    }
+}
@@ -1,9 +1,22 @@
+import MainSystem.SessionServer;
 import MainSystem.SystemManager;
 import Utils.Utils;
 
+import java.io.IOException;
+
 public class Main {
     public static void main(String[] args) {
         SystemManager system = SystemManager.getInstance();
+        Integer port = Integer.getInteger("shopdee.port"); // serve network sessions instead of the console
+        if (port != null) {
+            try {
+                new SessionServer(system, port).run();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                System.out.println("System message: Cannot serve on port " + port + "!");
+            }
+            return;
+        }
         while (true) {
             try {
                 system.displayMenu();
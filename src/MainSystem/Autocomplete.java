@@ -0,0 +1,215 @@
+package MainSystem;
+
+import Item.CatalogEvents;
+import Item.CatalogListener;
+import Item.Item;
+import Item.ItemStock;
+import Shop.Shop;
+import Utils.IntObjectMap;
+import Utils.TopKTrie;
+import Utils.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Name suggestions for what a user has typed so far, from a TopKTrie over product names and one over shop names.
+// A product name ranks by the quantity in stock over every shop selling it, a shop name by the quantity in stock of
+// the shop. The tries hold the names' search keys (Utils.searchKey), so what is typed matches whatever its case and
+// accents, and names differing only in those share one suggestion, shown as the first of them seen.
+// Built from the loaded shops without creating ItemStock objects, kept current through CatalogEvents and told by
+// SystemManager about shops created or renamed. Quantities moved by carts are only noted, without the lock, and
+// ranked again by the next suggestion, so checkouts running in parallel do not queue on the write lock.
+// Every stock points to the tally of its product's key, so the key is held once however many shops sell it.
+final class Autocomplete implements CatalogListener {
+    private record Stock(Tally product, int quantity, int shopId) {
+    }
+
+    // How many entries share a key, their quantity in stock together and the name the key is shown as
+    private static final class Tally {
+        final String key;
+        String name;
+        long count;
+        long quantity;
+
+        Tally(String key) {
+            this.key = key;
+        }
+    }
+
+    private final TopKTrie productNames;
+    private final TopKTrie shopNames;
+    private final HashMap<String, Tally> products = new HashMap<>();
+    private final HashMap<String, Tally> shops = new HashMap<>();
+    private final IntObjectMap<Stock> stocks = new IntObjectMap<>();
+    private final IntObjectMap<String> shopKeyById = new IntObjectMap<>();
+    private final IntObjectMap<Tally> shopQuantity = new IntObjectMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock(); // guards all of the above
+    private final Set<ItemStock> pending = ConcurrentHashMap.newKeySet(); // stock a cart took from or gave back to
+
+    Autocomplete(Collection<Shop> shopList, int suggestions) throws IOException {
+        productNames = new TopKTrie(suggestions);
+        shopNames = new TopKTrie(suggestions);
+        for (Shop shop : shopList) {
+            addShop(shop);
+            shop.forEachStock((id, name, price, quantity) -> addStock(id, Utils.searchKey(name), name, quantity, shop.getId()));
+        }
+        CatalogEvents.addListener(this);
+    }
+
+    List<String> suggestProducts(String prefix) {
+        String key = Utils.searchKey(prefix);
+        catchUp();
+        lock.readLock().lock();
+        try {
+            return names(products, productNames.top(key));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<String> suggestShops(String prefix) {
+        String key = Utils.searchKey(prefix);
+        catchUp();
+        lock.readLock().lock();
+        try {
+            return names(shops, shopNames.top(key));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void shopAdded(Shop shop) {
+        write(() -> {
+            if (shopKeyById.get(shop.getId()) == null) addShop(shop);
+        });
+    }
+
+    void shopRenamed(Shop shop) {
+        write(() -> renameShop(shop));
+    }
+
+    @Override
+    public void stockAdded(Shop shop, ItemStock itemStock) {
+        write(() -> addStock(itemStock.getId(), itemStock.getItem(), itemStock.getQuantity(), shop.getId()));
+    }
+
+    @Override
+    public void stockRemoved(Shop shop, ItemStock itemStock) {
+        write(() -> removeStock(itemStock.getId()));
+    }
+
+    @Override
+    public void stockRenamed(ItemStock itemStock, String oldName) {
+        write(() -> update(itemStock));
+    }
+
+    @Override
+    public void stockChanged(ItemStock itemStock) {
+        write(() -> update(itemStock));
+    }
+
+    @Override
+    public void quantityChanged(ItemStock itemStock) {
+        pending.add(itemStock);
+    }
+
+    // Ranks again the stock whose quantity was noted since the last suggestion
+    private void catchUp() {
+        if (pending.isEmpty()) return;
+        write(() -> {
+            for (Iterator<ItemStock> it = pending.iterator(); it.hasNext(); ) {
+                ItemStock itemStock = it.next();
+                it.remove(); // before reading the quantity, a change made after that is noted again
+                Stock stock = stocks.get(itemStock.getId());
+                if (stock != null && stock.quantity() != Math.max(itemStock.getQuantity(), 0)) update(itemStock);
+            }
+        });
+    }
+
+    private void write(Runnable change) {
+        lock.writeLock().lock();
+        try {
+            change.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void renameShop(Shop shop) {
+        String oldKey = shopKeyById.get(shop.getId());
+        if (oldKey == null || oldKey.equals(shop.searchKey())) return;
+        long quantity = shopQuantity.get(shop.getId()).quantity;
+        count(shops, shopNames, oldKey, null, -1, -quantity);
+        count(shops, shopNames, shop.searchKey(), shop.getName(), 1, quantity);
+        shopKeyById.put(shop.getId(), shop.searchKey());
+    }
+
+    private void update(ItemStock itemStock) {
+        Stock old = removeStock(itemStock.getId());
+        if (old != null) addStock(itemStock.getId(), itemStock.getItem(), itemStock.getQuantity(), old.shopId());
+    }
+
+    private void addShop(Shop shop) {
+        shopKeyById.put(shop.getId(), shop.searchKey());
+        shopQuantity.put(shop.getId(), new Tally(null)); // only its quantity is used
+        count(shops, shopNames, shop.searchKey(), shop.getName(), 1, 0);
+    }
+
+    private void addStock(int id, Item item, int quantity, int shopId) {
+        addStock(id, item.searchKey(), item.getName(), quantity, shopId);
+    }
+
+    private void addStock(int id, String key, String name, int quantity, int shopId) {
+        int inStock = Math.max(quantity, 0);
+        stocks.put(id, new Stock(count(products, productNames, key, name, 1, inStock), inStock, shopId));
+        shopStockChanged(shopId, inStock);
+    }
+
+    private Stock removeStock(int id) {
+        Stock stock = stocks.remove(id);
+        if (stock == null) return null;
+        count(products, productNames, stock.product().key, null, -1, -stock.quantity());
+        shopStockChanged(stock.shopId(), -stock.quantity());
+        return stock;
+    }
+
+    private void shopStockChanged(int shopId, long quantity) {
+        Tally shop = shopQuantity.get(shopId);
+        if (shop == null || quantity == 0) return;
+        shop.quantity += quantity;
+        count(shops, shopNames, shopKeyById.get(shopId), null, 0, quantity);
+    }
+
+    // Applies a change to the tally of the key and gives the trie its new score, the key goes once nothing has it.
+    // Returns the tally.
+    private static Tally count(HashMap<String, Tally> tallies, TopKTrie trie, String key, String name, long entries,
+                               long quantity) {
+        Tally tally = tallies.computeIfAbsent(key, Tally::new);
+        if (tally.name == null) tally.name = name;
+        tally.count += entries;
+        tally.quantity += quantity;
+        if (tally.count <= 0) {
+            tallies.remove(key);
+            trie.remove(key);
+        } else {
+            trie.put(tally.key, tally.quantity);
+        }
+        return tally;
+    }
+
+    private static List<String> names(HashMap<String, Tally> tallies, List<String> keys) {
+        List<String> result = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            result.add(tallies.get(key).name);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,154 @@
+package MainSystem;
+
+import Order.Order;
+import Order.OrderEvents;
+import Order.OrderListener;
+import Order.OrderState;
+import Utils.Address;
+import Utils.IntObjectMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The live orders grouped by state and by the city they currently are in, so a shipper only looks at the orders
+// waiting in their own city. Each bucket keeps its orders in the order they arrived there, and every arrival is
+// numbered so buckets can be merged in that order; ids do not follow the order orders were created in.
+// Orders are added when created, follow OrderEvents while they move, and leave when archived.
+// Guarded by a ReentrantLock rather than the monitor, so virtual threads waiting for orders do not pin their carrier,
+// and an order wakes only the shippers waiting in its city.
+final class DispatchIndex implements OrderListener {
+    private final EnumMap<OrderState, EnumMap<Address.City, LinkedHashSet<Order>>> buckets = new EnumMap<>(OrderState.class);
+    private final IntObjectMap<Placement> placed = new IntObjectMap<>(); // order id -> where and when it arrived
+    private long arrivals; // number of the next arrival
+    private final ReentrantLock lock = new ReentrantLock();
+    private final EnumMap<Address.City, Condition> readyIn = new EnumMap<>(Address.City.class);
+
+    private record Placement(LinkedHashSet<Order> bucket, long arrival) {
+    }
+
+    DispatchIndex(Collection<Order> orders) {
+        for (OrderState state : OrderState.values()) {
+            EnumMap<Address.City, LinkedHashSet<Order>> byCity = new EnumMap<>(Address.City.class);
+            for (Address.City city : Address.City.values()) {
+                byCity.put(city, new LinkedHashSet<>());
+            }
+            buckets.put(state, byCity);
+        }
+        for (Address.City city : Address.City.values()) {
+            readyIn.put(city, lock.newCondition());
+        }
+        for (Order order : orders) {
+            add(order);
+        }
+        OrderEvents.addListener(this);
+    }
+
+    void add(Order order) {
+        lock.lock();
+        try {
+            place(order);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(Order order) {
+        lock.lock();
+        try {
+            Placement placement = placed.remove(order.getId());
+            if (placement != null) placement.bucket().remove(order);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void orderChanged(Order order) {
+        lock.lock();
+        try {
+            if (!placed.containsKey(order.getId())) return; // not a live order of this system
+            remove(order);
+            add(order);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Orders a shipper of the city can take, the one waiting longest first
+    List<Order> readyToShip(Address.City city) {
+        lock.lock();
+        try {
+            LinkedHashSet<Order> accepted = buckets.get(OrderState.SHOP_ACCEPTED).get(city);
+            LinkedHashSet<Order> atWarehouse = buckets.get(OrderState.AT_WAREHOUSE).get(city);
+            List<Order> result = new ArrayList<>(accepted.size() + atWarehouse.size());
+            Iterator<Order> left = accepted.iterator();
+            Iterator<Order> right = atWarehouse.iterator();
+            Order a = left.hasNext() ? left.next() : null;
+            Order b = right.hasNext() ? right.next() : null;
+            while (a != null || b != null) {
+                if (b == null || a != null && arrival(a) < arrival(b)) {
+                    result.add(a);
+                    a = left.hasNext() ? left.next() : null;
+                } else {
+                    result.add(b);
+                    b = right.hasNext() ? right.next() : null;
+                }
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits until an order is ready to ship in the city and returns the one waiting longest, or null once the timeout
+    // is up.
+    // The order is not reserved, whoever takes it first gets it.
+    Order awaitReadyToShip(Address.City city, long timeoutMillis) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (true) {
+                Order accepted = first(buckets.get(OrderState.SHOP_ACCEPTED).get(city));
+                Order atWarehouse = first(buckets.get(OrderState.AT_WAREHOUSE).get(city));
+                if (accepted != null && (atWarehouse == null || arrival(accepted) < arrival(atWarehouse))) {
+                    return accepted;
+                }
+                if (atWarehouse != null) return atWarehouse;
+                if (remaining <= 0) return null;
+                remaining = readyIn.get(city).awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private void place(Order order) {
+        if (order.getOrderState() == null || order.getLocation() == null || order.getLocation().city() == null) return;
+        Address.City city = order.getLocation().city();
+        LinkedHashSet<Order> bucket = buckets.get(order.getOrderState()).get(city);
+        bucket.add(order);
+        placed.put(order.getId(), new Placement(bucket, arrivals++));
+        if (isReadyToShip(order)) readyIn.get(city).signalAll();
+    }
+
+    private static boolean isReadyToShip(Order order) {
+        return order.getOrderState() == OrderState.SHOP_ACCEPTED || order.getOrderState() == OrderState.AT_WAREHOUSE;
+    }
+
+    // Called with the lock held
+    private long arrival(Order order) {
+        return placed.get(order.getId()).arrival();
+    }
+
+    private static Order first(LinkedHashSet<Order> bucket) {
+        return bucket.isEmpty() ? null : bucket.iterator().next();
+    }
+}
@@ -0,0 +1,148 @@
+package MainSystem;
+
+import Order.Order;
+import Persistence.OrderArchive;
+import Shop.Shop;
+import User.User;
+import Utils.Address;
+import Utils.IntObjectMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+// Every order, live or archived, in buckets of one day (UTC) of its orderedDate, so a date range only looks at the
+// days inside it. A bucket keeps light references in date order; live orders are resolved from memory and archived
+// ones read back from the archive a day at a time, as a result stream reaches that day.
+// Orders are added when created and marked when archived. Orders without a date are not kept.
+final class OrderTimeline {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private record Ref(int orderId, int customerId, int shopId, long orderedAt) {
+    }
+
+    private static final Comparator<Ref> BY_DATE = Comparator.comparingLong(Ref::orderedAt).thenComparingInt(Ref::orderId);
+
+    private final TreeMap<Long, ArrayList<Ref>> days = new TreeMap<>();
+    private final IntObjectMap<Order> live = new IntObjectMap<>();
+    private final OrderArchive archive; // null if the archive could not be opened
+    private final IntFunction<Shop> shops;
+
+    OrderTimeline(Collection<Order> orders, OrderArchive archive, IntFunction<Shop> shops) {
+        this.archive = archive;
+        this.shops = shops;
+        for (Order order : orders) {
+            if (order.getOrderedDate() == null) continue;
+            live.put(order.getId(), order);
+            append(toRef(order));
+        }
+        if (archive != null) {
+            archive.forEachOrder((orderId, customerId, shopId, orderedAt) -> {
+                if (orderedAt != OrderArchive.NO_DATE && !live.containsKey(orderId)) {
+                    append(new Ref(orderId, customerId, shopId, orderedAt));
+                }
+            });
+        }
+        for (ArrayList<Ref> bucket : days.values()) {
+            bucket.sort(BY_DATE);
+        }
+    }
+
+    synchronized void add(Order order) {
+        if (order.getOrderedDate() == null || live.put(order.getId(), order) != null) return;
+        Ref ref = toRef(order);
+        ArrayList<Ref> bucket = days.computeIfAbsent(day(ref.orderedAt()), k -> new ArrayList<>());
+        int at = Collections.binarySearch(bucket, ref, BY_DATE);
+        if (at < 0) bucket.add(-at - 1, ref); // nearly always at the end
+    }
+
+    // The order is now only in the archive
+    synchronized void archived(Order order) {
+        live.remove(order.getId());
+    }
+
+    // Orders dated from inclusive to to exclusive (epoch milliseconds), oldest first
+    Stream<Order> customerOrders(int customerId, long from, long to, IntFunction<User> users) {
+        return between(from, to, (customer, shop) -> customer == customerId, users);
+    }
+
+    Stream<Order> shopOrders(int shopId, long from, long to, IntFunction<User> users) {
+        return between(from, to, (customer, shop) -> shop == shopId, users);
+    }
+
+    // Orders of the shops located in the city
+    Stream<Order> cityOrders(Address.City city, long from, long to, IntFunction<User> users) {
+        return between(from, to, (customer, shopId) -> {
+            Shop shop = shops.apply(shopId);
+            return shop != null && shop.getAddress() != null && shop.getAddress().city() == city;
+        }, users);
+    }
+
+    private interface RefFilter {
+        boolean test(int customerId, int shopId);
+    }
+
+    private Stream<Order> between(long from, long to, RefFilter filter, IntFunction<User> users) {
+        if (from >= to) return Stream.empty();
+        List<Long> keys;
+        synchronized (this) {
+            keys = new ArrayList<>(days.subMap(day(from), true, day(to - 1), true).keySet());
+        }
+        return keys.stream().flatMap(day -> resolve(day, from, to, filter, users).stream());
+    }
+
+    // The orders of one day that are in the range and pass the filter
+    private List<Order> resolve(long day, long from, long to, RefFilter filter, IntFunction<User> users) {
+        List<Ref> refs = new ArrayList<>();
+        List<Order> found = new ArrayList<>();
+        synchronized (this) {
+            ArrayList<Ref> bucket = days.get(day);
+            if (bucket == null) return found;
+            for (Ref ref : bucket) {
+                if (ref.orderedAt() < from || ref.orderedAt() >= to || !filter.test(ref.customerId(), ref.shopId())) continue;
+                refs.add(ref);
+                found.add(live.get(ref.orderId()));
+            }
+        }
+
+        List<Integer> archived = new ArrayList<>();
+        for (int i = 0; i < refs.size(); i++) {
+            if (found.get(i) == null) archived.add(refs.get(i).orderId());
+        }
+        if (!archived.isEmpty() && archive != null) {
+            HashMap<Integer, Order> read = new HashMap<>();
+            try {
+                for (Order order : archive.orders(archived, users, shops)) {
+                    read.put(order.getId(), order);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (int i = 0; i < refs.size(); i++) {
+                if (found.get(i) == null) found.set(i, read.get(refs.get(i).orderId()));
+            }
+        }
+        found.removeIf(order -> order == null);
+        return found;
+    }
+
+    private void append(Ref ref) {
+        days.computeIfAbsent(day(ref.orderedAt()), k -> new ArrayList<>()).add(ref);
+    }
+
+    private static Ref toRef(Order order) {
+        return new Ref(order.getId(), order.getCustomer().getId(), order.getShop().getId(), order.getOrderedDate().getTime());
+    }
+
+    private static long day(long millis) {
+        return Math.floorDiv(millis, DAY_MILLIS);
+    }
+}
@@ -0,0 +1,12 @@
+package MainSystem;
+
+import java.util.List;
+
+// One page of a listing and the token that asks for the page after it, null on the last page.
+// Tokens are opaque to callers. They mark where the page ended in a way that survives changes in between: the id of
+// the last entry shown, or a position in listings that only ever grow at the end.
+public record Page<T>(List<T> items, String next) {
+    public boolean isLast() {
+        return next == null;
+    }
+}
@@ -0,0 +1,229 @@
+package MainSystem;
+
+import Item.CatalogEvents;
+import Item.CatalogListener;
+import Item.ItemStock;
+import Shop.Shop;
+import Utils.IntObjectMap;
+import Utils.PricedIdSet;
+import Utils.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+// Every stock ordered by price, overall and per item name (its search key, so case and accents do not split
+// offers), with a second copy of both orders holding only the stock that is not sold out. Range and cheapest-first
+// queries walk an order from the first match, so they cost O(log n + k) for k results. Built from the loaded shops
+// without creating ItemStock objects, kept current through CatalogEvents; only the stock returned by a query is
+// resolved to objects, after the read lock is released.
+// The orders are PricedIdSets of primitive (price, id) pairs. Each stock has one small entry to find its pairs
+// again, pointing to the offers of its name, which hold the only copy of the name's search key.
+// Quantities moved by carts are only noted, without the lock, and applied by the next query, so checkouts running
+// in parallel do not queue on this index.
+final class PriceIndex implements CatalogListener {
+    // The offers of one item name, under its search key
+    private static final class Offers {
+        final String key;
+        final PricedIdSet all = new PricedIdSet();
+        final PricedIdSet inStock = new PricedIdSet();
+
+        Offers(String key) {
+            this.key = key;
+        }
+    }
+
+    private record Entry(double price, Offers offers, boolean inStock) {
+    }
+
+    // Collects up to limit ids priced at most maxPrice, and the pair it stopped at
+    private static final class Batch implements PricedIdSet.Visitor {
+        final double maxPrice;
+        final int limit;
+        int[] ids = new int[16];
+        int size;
+        double lastPrice;
+        int lastId;
+
+        Batch(double maxPrice, int limit) {
+            this.maxPrice = maxPrice;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean visit(double price, int id) {
+            if (price > maxPrice) return false;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+            lastPrice = price;
+            lastId = id;
+            return size < limit;
+        }
+    }
+
+    private final PricedIdSet all = new PricedIdSet();
+    private final PricedIdSet inStock = new PricedIdSet();
+    private final HashMap<String, Offers> byName = new HashMap<>();
+    private final IntObjectMap<Entry> byId = new IntObjectMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock(); // guards all of the above
+    private final Set<ItemStock> pending = ConcurrentHashMap.newKeySet(); // stock a cart took from or gave back to
+    private final IntFunction<ItemStock> stockById; // also loads stock still in the catalog
+
+    PriceIndex(Collection<Shop> shops, IntFunction<ItemStock> stockById) throws IOException {
+        this.stockById = stockById;
+        for (Shop shop : shops) {
+            shop.forEachStock((id, name, price, quantity) -> add(id, price, Utils.searchKey(name), quantity > 0));
+        }
+        CatalogEvents.addListener(this);
+    }
+
+    // Stock priced from minPrice to maxPrice inclusive, cheapest first
+    List<ItemStock> inRange(double minPrice, double maxPrice, boolean inStockOnly) {
+        if (minPrice > maxPrice) return new ArrayList<>();
+        return resolve(() -> inStockOnly ? inStock : all, minPrice, maxPrice, Integer.MAX_VALUE);
+    }
+
+    // The count cheapest offers of the item across all shops
+    List<ItemStock> cheapest(String itemName, int count, boolean inStockOnly) {
+        String key = Utils.searchKey(itemName);
+        return resolve(() -> {
+            Offers offers = byName.get(key);
+            if (offers == null) return null;
+            return inStockOnly ? offers.inStock : offers.all;
+        }, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, count);
+    }
+
+    @Override
+    public void stockAdded(Shop shop, ItemStock itemStock) {
+        lock.writeLock().lock();
+        try {
+            add(itemStock);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void stockRemoved(Shop shop, ItemStock itemStock) {
+        lock.writeLock().lock();
+        try {
+            remove(itemStock.getId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void stockRenamed(ItemStock itemStock, String oldName) {
+        lock.writeLock().lock();
+        try {
+            update(itemStock);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void stockChanged(ItemStock itemStock) {
+        lock.writeLock().lock();
+        try {
+            update(itemStock);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void quantityChanged(ItemStock itemStock) {
+        pending.add(itemStock);
+    }
+
+    // Applies the quantities noted since the last query; of those only whether the stock is sold out matters here
+    private void catchUp() {
+        if (pending.isEmpty()) return;
+        lock.writeLock().lock();
+        try {
+            for (Iterator<ItemStock> it = pending.iterator(); it.hasNext(); ) {
+                ItemStock itemStock = it.next();
+                it.remove(); // before reading the quantity, a change made after that is noted again
+                Entry entry = byId.get(itemStock.getId());
+                if (entry != null && entry.inStock() != itemStock.getQuantity() > 0) update(itemStock);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void update(ItemStock itemStock) {
+        if (remove(itemStock.getId()) != null) add(itemStock); // stock not in the index is not on sale
+    }
+
+    private void add(ItemStock itemStock) {
+        add(itemStock.getId(), itemStock.getPrice(), itemStock.getItem().searchKey(), itemStock.getQuantity() > 0);
+    }
+
+    private void add(int id, double price, String key, boolean isInStock) {
+        Offers offers = byName.computeIfAbsent(key, Offers::new);
+        byId.put(id, new Entry(price, offers, isInStock));
+        all.add(price, id);
+        offers.all.add(price, id);
+        if (isInStock) {
+            inStock.add(price, id);
+            offers.inStock.add(price, id);
+        }
+    }
+
+    private Entry remove(int itemStockId) {
+        Entry entry = byId.remove(itemStockId);
+        if (entry == null) return null;
+        Offers offers = entry.offers();
+        all.remove(entry.price(), itemStockId);
+        offers.all.remove(entry.price(), itemStockId);
+        if (entry.inStock()) {
+            inStock.remove(entry.price(), itemStockId);
+            offers.inStock.remove(entry.price(), itemStockId);
+        }
+        if (offers.all.isEmpty()) byName.remove(offers.key);
+        return entry;
+    }
+
+    // Up to count stock from minPrice to maxPrice of the set, in its order. The ids are copied a batch at a time
+    // under the read lock and resolved without it; stock removed in between is skipped and the next batch carries
+    // on after the last pair of the one before.
+    private List<ItemStock> resolve(Supplier<PricedIdSet> set, double minPrice, double maxPrice, int count) {
+        catchUp();
+        List<ItemStock> result = new ArrayList<>();
+        double fromPrice = minPrice;
+        int fromId = Integer.MIN_VALUE;
+        boolean inclusive = true;
+        while (result.size() < count) {
+            Batch batch = new Batch(maxPrice, count - result.size());
+            lock.readLock().lock();
+            try {
+                PricedIdSet ids = set.get();
+                if (ids != null) ids.forEachFrom(fromPrice, fromId, inclusive, batch);
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (batch.size == 0) break;
+            for (int i = 0; i < batch.size; i++) {
+                ItemStock itemStock = stockById.apply(batch.ids[i]);
+                if (itemStock != null) result.add(itemStock);
+            }
+            fromPrice = batch.lastPrice;
+            fromId = batch.lastId;
+            inclusive = false;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+package MainSystem;
+
+import Item.CatalogEvents;
+import Item.CatalogListener;
+import Item.ItemStock;
+import Item.StockRegistry;
+import Shop.Shop;
+import Utils.TrigramIndex;
+import Utils.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Product name search backed by a TrigramIndex over the search key (Utils.searchKey) of every stock's item name,
+// so it ignores case and accents.
+// Built once from the loaded shops, without creating ItemStock objects for stock still in a catalog, and then kept
+// current through CatalogEvents. Only the stock that matches a query is resolved to objects.
+// Queries share a read lock and resolve their matches after releasing it: events arrive with a shop locked, so
+// a shop lock is never taken while this one is held.
+final class ProductSearch implements CatalogListener {
+    private final TrigramIndex index = new TrigramIndex(); // guarded by lock, as is owners
+    private final HashMap<Integer, Shop> owners = new HashMap<>(); // stock id -> shop selling it
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    ProductSearch(Collection<Shop> shops) throws IOException {
+        for (Shop shop : shops) {
+            shop.forEachStock((id, name, price, quantity) -> {
+                index.add(id, Utils.searchKey(name));
+                owners.put(id, shop);
+            });
+        }
+        CatalogEvents.addListener(this);
+    }
+
+    // Same matches as String.contains of the name's key over every item's key, ordered by stock id
+    List<ItemStock> find(String name) {
+        return find(name, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    // Up to limit matches with an id above afterId, in id order
+    List<ItemStock> find(String name, int afterId, int limit) {
+        String key = Utils.searchKey(name);
+        List<ItemStock> result = new ArrayList<>();
+        int after = afterId;
+        while (result.size() < limit) {
+            List<Integer> ids = new ArrayList<>();
+            List<Shop> shops = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                int[] matches = index.find(key);
+                int from = Arrays.binarySearch(matches, after);
+                from = from >= 0 ? from + 1 : -from - 1;
+                for (int i = from; i < matches.length && ids.size() < limit - result.size(); i++) {
+                    ids.add(matches[i]);
+                    shops.add(owners.get(matches[i]));
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (ids.isEmpty()) break;
+            // stock removed since the lock was released is skipped, and the next round looks further
+            for (int i = 0; i < ids.size(); i++) {
+                ItemStock itemStock = StockRegistry.find(ids.get(i));
+                if (itemStock == null) itemStock = shops.get(i).findStock(ids.get(i)); // still in the catalog
+                if (itemStock != null) result.add(itemStock);
+            }
+            after = ids.get(ids.size() - 1);
+        }
+        return result;
+    }
+
+    @Override
+    public void stockAdded(Shop shop, ItemStock itemStock) {
+        lock.writeLock().lock();
+        try {
+            index.add(itemStock.getId(), itemStock.getItem().searchKey());
+            owners.put(itemStock.getId(), shop);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void stockRemoved(Shop shop, ItemStock itemStock) {
+        lock.writeLock().lock();
+        try {
+            index.remove(itemStock.getId());
+            owners.remove(itemStock.getId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void stockRenamed(ItemStock itemStock, String oldName) {
+        lock.writeLock().lock();
+        try {
+            if (owners.containsKey(itemStock.getId())) index.add(itemStock.getId(), itemStock.getItem().searchKey());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void stockChanged(ItemStock itemStock) {
+        // the name is all this index looks at
+    }
+}
@@ -0,0 +1,89 @@
+package MainSystem;
+
+import Utils.Utils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Serves the console menus over TCP on localhost, started with -Dshopdee.port=<port>. The protocol is the console's:
+// the server sends the menu text and prompts, the client answers each prompt with one line. Every connection is a
+// session of its own, run on its own thread with its socket as the terminal of Utils, and ends when the user exits
+// or closes the connection.
+// Sessions run on virtual threads when the JVM has them (21 and later), so an idle shopper costs a few KB and not a
+// platform thread; older JVMs fall back to a cached pool of platform threads.
+public final class SessionServer {
+    private final SystemManager system;
+    private final int port;
+    private final ExecutorService sessions = newSessionExecutor();
+
+    public SessionServer(SystemManager system, int port) {
+        this.system = system;
+        this.port = port;
+    }
+
+    // Accepts connections until the JVM stops
+    public void run() throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress())) {
+            System.out.println("System message: Serving sessions on " + server.getLocalSocketAddress() + ".");
+            while (true) {
+                Socket socket = server.accept();
+                sessions.execute(() -> serve(socket));
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true); // prompts are small and the client waits for each of them
+            Scanner in = new Scanner(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false,
+                    StandardCharsets.UTF_8);
+            Utils.runOn(new Utils.Terminal(in, out, StandardCharsets.UTF_8), this::runMenus);
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("System message: Session ended: " + e.getMessage());
+        }
+    }
+
+    // Same as the console's main loop, except that exiting or closing the connection only ends this session
+    private void runMenus() {
+        try {
+            while (true) {
+                try {
+                    system.displayMenu();
+                    return;
+                } catch (NoSuchElementException e) {
+                    return; // the client closed its side
+                } catch (Exception e) {
+                    Utils.out().println(e.getMessage());
+                    if (!Utils.promptInput("Restart program? (y/n): ").equalsIgnoreCase("y")) return;
+                }
+            }
+        } catch (NoSuchElementException e) {
+            // closed while asked to restart
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is looked up at run time, the sources still build on 17
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "session");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
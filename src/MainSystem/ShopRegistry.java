@@ -0,0 +1,89 @@
+package MainSystem;
+
+import Shop.Shop;
+import User.Customer;
+import User.User;
+import Utils.TrigramIndex;
+import Utils.Utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Every shop of the mall, by id and by name. Built from the owners once the data is loaded and the journal replayed,
+// then told about each shop created or renamed. Shops are listed in id order.
+// Listing and finding by id take no lock; name searches share a read lock and only exclude a concurrent change.
+final class ShopRegistry {
+    private final CopyOnWriteArrayList<Shop> shops = new CopyOnWriteArrayList<>(); // rarely written, read everywhere
+    private final List<Shop> view = Collections.unmodifiableList(shops);
+    private final ConcurrentHashMap<Integer, Shop> byId = new ConcurrentHashMap<>();
+    private final TrigramIndex names = new TrigramIndex(); // of the names' search keys, guarded by lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    ShopRegistry(Collection<User> users) {
+        List<Shop> owned = new ArrayList<>();
+        for (User user : users) {
+            if (user instanceof Customer customer && customer.getOwnedShop() != null) owned.add(customer.getOwnedShop());
+        }
+        owned.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        for (Shop shop : owned) {
+            byId.put(shop.getId(), shop);
+            names.add(shop.getId(), shop.searchKey());
+        }
+        shops.addAll(owned);
+    }
+
+    // Read-only and live, iterating it allocates nothing and never sees a half-added shop
+    List<Shop> all() {
+        return view;
+    }
+
+    Shop find(int shopId) {
+        return byId.get(shopId);
+    }
+
+    // Shops whose name contains the text, ignoring case and accents, in id order
+    List<Shop> findByName(String text) {
+        String key = Utils.searchKey(text);
+        int[] ids;
+        lock.readLock().lock();
+        try {
+            ids = names.find(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Shop> result = new ArrayList<>();
+        for (int id : ids) {
+            result.add(byId.get(id));
+        }
+        return result;
+    }
+
+    void added(Shop shop) {
+        lock.writeLock().lock();
+        try {
+            if (byId.putIfAbsent(shop.getId(), shop) == null) {
+                int at = shops.size(); // ids are handed out before the shops get here, so keep the list sorted
+                while (at > 0 && shops.get(at - 1).getId() > shop.getId()) at--;
+                shops.add(at, shop);
+            }
+            names.add(shop.getId(), shop.searchKey());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void renamed(Shop shop) {
+        lock.writeLock().lock();
+        try {
+            if (byId.get(shop.getId()) == shop) names.add(shop.getId(), shop.searchKey());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
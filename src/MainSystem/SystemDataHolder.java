@@ -5,13 +5,13 @@ import User.User;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 
-public record SystemDataHolder(Hashtable<String, User> users, double profit, List<Order> orders) {
+public record SystemDataHolder(Map<String, User> users, double profit, List<Order> orders) {
     @JsonCreator
     public SystemDataHolder(
-            @JsonProperty("users") Hashtable<String, User> users,
+            @JsonProperty("users") Map<String, User> users,
             @JsonProperty("profit") double profit,
             @JsonProperty("orders") List<Order> orders
     ) {
@@ -3,86 +3,198 @@ package MainSystem;
 import Item.Cart;
 import Item.CartItem;
 import Item.ItemStock;
+import Item.Reservation;
+import Item.StockRegistry;
 import Order.Order;
+import Order.OrderBook;
 import Order.OrderContent;
 import Order.OrderState;
+import Persistence.Journal;
+import Persistence.JournalReplayer;
+import Persistence.OrderArchive;
+import Persistence.PersistenceConfig;
+import Persistence.SnapshotFormat;
+import Persistence.SnapshotStore;
 import Shop.Shop;
+import Shop.StockSource;
 import User.Customer;
 import User.Shipper;
 import User.User;
 import User.UserRole;
 import Utils.Address;
+import Utils.Money;
 import Utils.Utils;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+// Serves many sessions at once. Locks are taken in this order, and never one while a lock further down is held:
+//   1. a user (User monitor): cart
+//   2. shops, by ascending id (Shop monitor): stock list
+//   3. leaf locks, held without calling out: an order's monitor while its state moves, the order books, the indexes
+//      (ShopRegistry, ProductSearch, PriceIndex, Autocomplete, DispatchIndex, OrderTimeline), StockRegistry,
+//      the archive and the journal
+// Stock quantities, balances and revenue change by compare-and-set, without locks. The profit grows as each order is
+// recorded in the journal, see Journal.orderCreated.
+// Catalog and order events fire with a shop held and only reach leaf locks; searches let go of their index before
+// they look stock up in a shop. Snapshots are encoded alongside the sessions, see Journal.checkpoint.
 public final class SystemManager {
     private static final double SHIPPER_FEE = 5000.0;
     private static final double PROFIT = 0.09;
     private static final double SHOP_PORTION = 1.0 - PROFIT;
-    private static final Path dataPath = Paths.get("data.json");
+    private static final int CHEAPEST_OFFERS = 5; // offers listed per product when comparing prices
+    private static final int SUGGESTIONS = 5; // name completions shown above search results
+    public static final int PAGE_SIZE = 20; // entries the console shows before asking to go on
+    private static final Path journalPath = Paths.get("journal.log");
+    private static final Path archivePath = Paths.get("archive");
+    private static final long JOURNAL_COMPACTION_SIZE = 4L * 1024 * 1024; // fold the journal into the snapshot past 4 MB
     private static final ObjectMapper mapper = new ObjectMapper()
             .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-
-    private Hashtable<String, User> users;
-    private double profit;
-    private List<Order> orders;
-    private Hashtable<Integer,Shop> shops;
+    private static final SnapshotFormat snapshotFormat = PersistenceConfig.snapshotFormat();
+    private static final SnapshotStore snapshotStore = snapshotFormat.store(mapper);
+
+    private Map<String, User> users; // concurrent, by username
+    private final Map<Integer, User> usersById = new ConcurrentHashMap<>(); // the same users, for the order indexes
+    private final LongAdder profit = new LongAdder(); // minor units (see Money), summed only at checkpoints
+    private final OrderBook orders = new OrderBook(); // live orders, not confirmed yet
+    private ShopRegistry shops;
+    private DispatchIndex dispatch; // live orders by state and city
+    private StockSource catalog; // shared by the loaded shops whose stock is still in the catalog file, if any
+    private final Journal journal = new Journal(journalPath, mapper);
+    private volatile long savedVersion; // journal version contained in the last snapshot, set by any session
+    private OrderArchive orderArchive; // confirmed orders, null if the archive could not be opened
+    private OrderTimeline timeline; // live and archived orders by date
+    private ProductSearch productSearch; // null if the stock could not be indexed
+    private PriceIndex prices; // null if the stock could not be indexed
+    private Autocomplete autocomplete; // null if the stock could not be indexed
 
     private SystemManager() {
-        if (Files.exists(dataPath)) {
+        SnapshotFormat loadedFormat = SnapshotFormat.findExisting(snapshotFormat).orElse(null);
+        List<Order> loaded;
+        double loadedProfit;
+        if (loadedFormat != null) {
             try {
-                String content = Files.readAllLines(dataPath).get(0);
-                SystemDataHolder data = mapper.readValue(content, SystemDataHolder.class);
-                users = data.users();
-                profit = data.profit();
-                orders = data.orders();
-                shops = new Hashtable<>();
-                for (Map.Entry<String,User> entry : users.entrySet()) {
-                    if(entry.getValue().getRole() == UserRole.Customer){
-                        Customer c = (Customer) entry.getValue();
-                        if(c.getOwnedShop()!=null){
-                            shops.put(c.getOwnedShop().getId(),c.getOwnedShop());
-                        }
-                    }
-
-                }
-                for (Order order : orders) {
-                    Customer customer = order.getCustomer();
-                    if (customer != null) {
-                        users.get(customer.getUsername()).addOrder(order);
-                    }
-
-                    Shipper shipper = order.getShipper();
-                    if (shipper != null) {
-                        users.get(shipper.getUsername()).addOrder(order);
-                    }
-                    Shop shop = order.getShop();
-                    if(shop != null){
-                        shops.get(shop.getId()).addOrder(order);
-                    }
-                }
+                SystemDataHolder data = loadedFormat.store(mapper).load();
+                users = new ConcurrentHashMap<>(data.users());
+                loadedProfit = data.profit();
+                loaded = data.orders();
             } catch (Exception e) {
                 System.out.println(e.getMessage());
 //                e.printStackTrace();
                 if (!Utils.promptInput("System message: Error reading data! Create new data? (y/n) ").equalsIgnoreCase("y")) {
                     System.exit(1);
                 }
-                users = new Hashtable<>();
-                profit = 0.0;
-                orders = new ArrayList<>();
+                loadedFormat = null;
+                StockRegistry.clear();
+                users = new ConcurrentHashMap<>();
+                loadedProfit = 0.0;
+                loaded = new ArrayList<>();
             }
         } else {
             System.out.println("System message: Data file not found. Creating new data.");
-            users = new Hashtable<>();
-            profit = 0.0;
-            orders = new ArrayList<>();
+            users = new ConcurrentHashMap<>();
+            loadedProfit = 0.0;
+            loaded = new ArrayList<>();
+        }
+        try {
+            SystemDataHolder replayed = JournalReplayer.replay(journal, mapper, new SystemDataHolder(users, loadedProfit, loaded));
+            loadedProfit = replayed.profit();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.out.println("System message: Error reading journal!");
+        }
+        profit.add(Money.toUnits(loadedProfit));
+        // replay may have created users and shops, so the id map and the registry are built from its result
+        users.values().forEach(user -> usersById.put(user.getId(), user));
+        shops = new ShopRegistry(users.values());
+        for (Shop shop : shops.all()) {
+            if (shop.stockSource() != null) catalog = shop.stockSource();
+        }
+        loaded.forEach(orders::add);
+        dispatch = new DispatchIndex(loaded);
+        openOrderArchive();
+        timeline = new OrderTimeline(orders.stream().toList(), orderArchive, shops::find);
+        // loading and replay do not go through the catalog events, so the index is built from their result
+        try {
+            productSearch = new ProductSearch(getAllShops());
+            prices = new PriceIndex(getAllShops(), id -> getProductById(id).orElse(null));
+            autocomplete = new Autocomplete(getAllShops(), SUGGESTIONS);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.out.println("System message: Error indexing products, searching without the index.");
+        }
+        if (loadedFormat != null && loadedFormat != snapshotFormat) {
+            migrateSnapshot(loadedFormat);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            journal.close();
+            if (orderArchive != null) orderArchive.close();
+            if (PersistenceConfig.printCommitMetrics()) System.out.println(journal.metrics());
+        }));
+    }
+
+    // Opens the archive and moves into it the confirmed orders still in the live state,
+    // which happens with data saved by older versions or confirmations recovered from the journal
+    private void openOrderArchive() {
+        try {
+            orderArchive = new OrderArchive(archivePath, mapper);
+            Order.reserveIdsUpTo(orderArchive.maxOrderId());
+        } catch (IOException | RuntimeException e) {
+            System.out.println(e.getMessage());
+            System.out.println("System message: Error opening order archive, confirmed orders are kept with the data.");
+            return;
+        }
+        List<Order> confirmed = orders.stream()
+                .filter(order -> order.getOrderState() == OrderState.CUSTOMER_CONFIRMED)
+                .toList();
+        for (Order order : confirmed) {
+            archiveOrder(order);
+        }
+        if (!confirmed.isEmpty()) writeSnapshot();
+    }
+
+    // Moves a confirmed order out of the live lists into the archive
+    private void archiveOrder(Order order) {
+        if (orderArchive == null) return;
+        // the confirmation must be in the journal before the order can leave the snapshot
+        if (!flush()) return;
+        try {
+            orderArchive.append(order);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.out.println("System message: Error archiving order!");
+            return;
+        }
+        orders.remove(order);
+        dispatch.remove(order);
+        if (timeline != null) timeline.archived(order);
+        order.getCustomer().getOrders().remove(order);
+        order.getShop().getOrders().remove(order);
+    }
+
+    // Rewrites data loaded from another snapshot format in the configured one, the old file or directory is kept as a backup
+    private void migrateSnapshot(SnapshotFormat from) {
+        writeSnapshot();
+        if (!flush() || !Files.exists(snapshotFormat.getPath())) return;
+        try {
+            Path backup = from.getPath().resolveSibling(from.getPath().getFileName() + ".migrated");
+            Files.move(from.getPath(), backup, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("System message: Data migrated to " + snapshotFormat.getPath() + ", old file kept as " + backup + ".");
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
         }
     }
 
@@ -94,11 +206,24 @@ public final class SystemManager {
         return SingletonHolder.instance;
     }
 
+    // Takes a full snapshot if anything changed since the last one.
+    // It is encoded here, so it matches the state at the time of the call, and written by the journal's writer thread.
     public void saveData() {
+        if (journal.version() != savedVersion) {
+            writeSnapshot();
+        }
+    }
+
+    // Blocks until every change made so far is on disk, false when some of them could not be written
+    public boolean flush() {
+        return journal.flush();
+    }
+
+    private void writeSnapshot() {
         try {
-            SystemDataHolder data = new SystemDataHolder(users, profit, orders);
-            String content = mapper.writeValueAsString(data);
-            Files.writeString(dataPath, content);
+            // the orders are listed before the users are read, so every order finds its customer and shop
+            savedVersion = journal.checkpoint(profit, profitAtCut -> snapshotStore.encode(
+                    new SystemDataHolder(users, Money.toAmount(profitAtCut), orders.stream().toList())));
         } catch (IOException e) {
             e.printStackTrace();
             System.out.println("System message: Error opening file!");
@@ -108,39 +233,45 @@ public final class SystemManager {
         }
     }
 
+    private void compactJournalIfNeeded() {
+        if (journal.size() > JOURNAL_COMPACTION_SIZE) {
+            saveData();
+        }
+    }
+
     public void displayMenu() {
 
         while (true) {
-            saveData();
+            compactJournalIfNeeded();
             User currentUser = null;
             String username;
             String password;
-            System.out.println("====== LOGIN MENU ======");
-            System.out.println("1. Login");
-            System.out.println("2. Register");
-            System.out.println("3. Exit");
-            System.out.println("========================");
+            Utils.out().println("====== LOGIN MENU ======");
+            Utils.out().println("1. Login");
+            Utils.out().println("2. Register");
+            Utils.out().println("3. Exit");
+            Utils.out().println("========================");
 
             String choice = Utils.promptInput("Enter your choice: ");
             switch (choice) {
                 case "1":
-                    System.out.println("------------Login menu--------------");
+                    Utils.out().println("------------Login menu--------------");
                     username = Utils.promptInput("Enter your username: ");
                     password = Utils.promptInput("Enter password: ");
                     currentUser = login(username, password);
                     if (currentUser == null) {
-                        System.out.println("Cannot find account or wrong password.");
+                        Utils.out().println("Cannot find account or wrong password.");
                     } else if (currentUser.getRole().equals(UserRole.Customer)) {
                         if (currentUser instanceof Customer) {
                             displayCustomerMenu((Customer) currentUser);
                         } else {
-                            System.out.println("Error: User is not a Customer instance.");
+                            Utils.out().println("Error: User is not a Customer instance.");
                         }
                     } else {
                         if (currentUser instanceof Shipper) {
                             displayShipperMenu((Shipper) currentUser);
                         } else {
-                            System.out.println("Error: User is not a Shipper instance.");
+                            Utils.out().println("Error: User is not a Shipper instance.");
                         }
 
                     }
@@ -149,10 +280,11 @@ public final class SystemManager {
                     displayRegisterMenu();
                     break;
                 case "3":
-                    System.out.println("Exit program...");
+                    Utils.out().println("Exit program...");
+                    if (!Utils.onConsole()) return; // ends this network session only
                     System.exit(0);
                 default:
-                    System.out.println("INVALID");
+                    Utils.out().println("INVALID");
             }
         }
     }
@@ -173,19 +305,19 @@ public final class SystemManager {
     private void displayRegisterMenu() {
         String username;
         String password;
-        System.out.println("-------Register menu----------");
-        System.out.println("Choose your role: ");
-        System.out.println("1. Customer");
-        System.out.println("2. Shipper");
+        Utils.out().println("-------Register menu----------");
+        Utils.out().println("Choose your role: ");
+        Utils.out().println("1. Customer");
+        Utils.out().println("2. Shipper");
         int roleChoice = Utils.promptIntInput("Option: ").orElse(-1);
         if (roleChoice != 1 && roleChoice != 2) {
-            System.out.println("Invalid choice. Stop register.");
+            Utils.out().println("Invalid choice. Stop register.");
             return;
         }
         while (true) {
             username = Utils.promptInput("Enter your username: ");
             if (existsUser(username)) {
-                System.out.println("This username existed. Try again!");
+                Utils.out().println("This username existed. Try again!");
             } else break;
         }
         password = Utils.promptInput("Enter your password: ");
@@ -193,33 +325,33 @@ public final class SystemManager {
         String phone = Utils.promptInput("Enter your phone number: ");
         Address address = askForUpdateAddress().orElse(null);
         if (address == null) {
-            System.out.println("Invalid input. Stop register.");
+            Utils.out().println("Invalid input. Stop register.");
             return;
         }
         if (roleChoice == 1) {
             if (registerCustomer(username, password, name, phone, address)) {
-                System.out.println("Register success!");
-            } else System.out.println("Register failed!");
+                Utils.out().println("Register success!");
+            } else Utils.out().println("Register failed!");
         } else {
             if (registerShipper(username, password, name, phone, address)) {
-                System.out.println("Register success!");
-            } else System.out.println("Register failed!");
+                Utils.out().println("Register success!");
+            } else Utils.out().println("Register failed!");
         }
     }
 
     private void displayCustomerMenu(Customer c) {
         while (true) {
-            saveData();
-            System.out.println("========= Customer menu =========");
-            System.out.println("Hello " + c.getName() + "!");
-            System.out.println("1. View/Update Profile");
-            System.out.println("2. Buy/view your cart");
-            System.out.println("3. View orders");
-            System.out.println("4. Your shop");
-            System.out.println("5. Deposit");
-            System.out.println("6. Withdraw");
-            System.out.println("7. Log out");
-            System.out.println("================================");
+            compactJournalIfNeeded();
+            Utils.out().println("========= Customer menu =========");
+            Utils.out().println("Hello " + c.getName() + "!");
+            Utils.out().println("1. View/Update Profile");
+            Utils.out().println("2. Buy/view your cart");
+            Utils.out().println("3. View orders");
+            Utils.out().println("4. Your shop");
+            Utils.out().println("5. Deposit");
+            Utils.out().println("6. Withdraw");
+            Utils.out().println("7. Log out");
+            Utils.out().println("================================");
 
             String choice = Utils.promptInput("Enter your choice: ");
             switch (choice) {
@@ -228,11 +360,11 @@ public final class SystemManager {
                     break;
                 case "2":
                     viewCart(c);
-                    System.out.println("========= Buy/Cart menu =========");
-                    System.out.println("1. Add item");
-                    System.out.println("2. Remove item");
-                    System.out.println("3. Pay");
-                    System.out.println("4. Exit");
+                    Utils.out().println("========= Buy/Cart menu =========");
+                    Utils.out().println("1. Add item");
+                    Utils.out().println("2. Remove item");
+                    Utils.out().println("3. Pay");
+                    Utils.out().println("4. Exit");
 
                     String select = Utils.promptInput("Enter your choice: ");
                     switch (select) {
@@ -246,38 +378,49 @@ public final class SystemManager {
                             pay(c);
                             break;
                         default:
-                            if (!select.equals("4")) System.out.println("INVALID");
+                            if (!select.equals("4")) Utils.out().println("INVALID");
                     }
                     break;
                 case "3":
-                    System.out.println("Your orders:");
-                    List<Order> customerOrders = c.getOrders();
+                    Utils.out().println("Your orders:");
+                    OrderBook customerOrders = c.getOrders();
                     if (customerOrders.isEmpty()) {
-                        System.out.println("Your don't have any order.");
-                        continue;
+                        Utils.out().println("Your don't have any order in progress.");
                     }
                     for (Order order : customerOrders) {
-                        System.out.println(order.toString());
+                        Utils.out().println(order.toString());
                     }
-                    String input =
-                            Utils.promptInput("Enter order id to confirm or type 'all' to confirm all or 'exit' to exit: ");
+                    String input = Utils.promptInput("Enter order id to confirm or type 'all' to confirm all, "
+                            + "'history' to view confirmed orders or 'exit' to exit: ");
                     if (input.equalsIgnoreCase("exit")) continue;
-                    if (input.equalsIgnoreCase("all")) {
+                    if (input.equalsIgnoreCase("history")) {
+                        viewOrderHistory(c);
+                    } else if (input.equalsIgnoreCase("all")) {
+                        List<Order> confirmed = new ArrayList<>();
                         for (Order order : customerOrders) {
-                            c.confirmOrder(order.getId(),SHOP_PORTION);
-                            System.out.printf("Order %s confirmed successfully!", order.getId());
+                            if (c.confirmOrder(order.getId(),SHOP_PORTION)) {
+                                journal.orderStateChanged(order);
+                                journal.revenueChanged(order.getShop());
+                                confirmed.add(order);
+                            }
+                            Utils.out().printf("Order %s confirmed successfully!", order.getId());
                         }
+                        confirmed.forEach(this::archiveOrder);
                     } else {
                         try {
                             int cartId = Integer.parseInt(input);
                             if (!c.confirmOrder(cartId, SHOP_PORTION)) {
-                                System.out.println("Error on confirming order. Order might not be in delivered state.");
+                                Utils.out().println("Error on confirming order. Order might not be in delivered state.");
                             }
                             else{
-                                System.out.printf("Order %s confirmed successfully!", cartId);
+                                Order order = customerOrders.get(cartId);
+                                journal.orderStateChanged(order);
+                                journal.revenueChanged(order.getShop());
+                                archiveOrder(order);
+                                Utils.out().printf("Order %s confirmed successfully!", cartId);
                             }
                         } catch (NumberFormatException e) {
-                            System.out.println("INVALID");
+                            Utils.out().println("INVALID");
                         }
                     }
                     break;
@@ -292,9 +435,10 @@ public final class SystemManager {
                     double amount = deposit();
                     if (amount >= 0.0) {
                         c.addBalance(amount);
-                        System.out.println("Deposit successfully!");
+                        journal.balanceChanged(c);
+                        Utils.out().println("Deposit successfully!");
                     } else {
-                        System.out.println("Deposit failed!");
+                        Utils.out().println("Deposit failed!");
                     }
                     break;
                 case "6":
@@ -303,23 +447,23 @@ public final class SystemManager {
                 case "7":
                     return;
                 default:
-                    System.out.println("Invalid choice");
+                    Utils.out().println("Invalid choice");
             }
         }
     }
 
     private void displayShipperMenu(Shipper s) {
         while (true) {
-            saveData();
-            System.out.println("========= Shipper menu =========");
-            System.out.println("Hello " + s.getName() + "!");
-            System.out.println("Your balance: " + s.getBalance());
-            System.out.println("1. Receive order");
-            System.out.println("2. Deliver order");
-            System.out.println("3. View task");
-            System.out.println("4. View/Update Profile");
-            System.out.println("5. Withdraw");
-            System.out.println("6. Log out");
+            compactJournalIfNeeded();
+            Utils.out().println("========= Shipper menu =========");
+            Utils.out().println("Hello " + s.getName() + "!");
+            Utils.out().println("Your balance: " + s.getBalance());
+            Utils.out().println("1. Receive order");
+            Utils.out().println("2. Deliver order");
+            Utils.out().println("3. View task");
+            Utils.out().println("4. View/Update Profile");
+            Utils.out().println("5. Withdraw");
+            Utils.out().println("6. Log out");
 
             int choice = Utils.promptIntInput("Enter your choice: ").orElse(-1);
 
@@ -342,88 +486,112 @@ public final class SystemManager {
                 case 6:
                     return;
                 default:
-                    System.out.println("INVALID");
+                    Utils.out().println("INVALID");
             }
         }
     }
 
+    // Confirmed orders are read back from the archive only when asked for
+    private void viewOrderHistory(Customer c) {
+        if (orderArchive == null) return;
+        printPages(token -> getOrderHistoryPage(c, token, PAGE_SIZE), SystemManager::writeEntry,
+                "You don't have any confirmed order.");
+    }
+
     private void takesOrder(Shipper s) {
-        System.out.println("----------Take order menu---------");
+        Utils.out().println("----------Take order menu---------");
 
         List<Order> orders = getOrdersReadyToShip(s);
         HashMap<Integer,Order> id_order = new HashMap<>();
         if (orders.isEmpty()) {
-            System.out.println("There is no order nearby to ship");
+            Utils.out().println("There is no order nearby to ship");
             return;
         }
 
         for (Order order : orders) {
-            System.out.println(order.toString());
+            Utils.out().println(order.toString());
             id_order.put(order.getId(),order);
         }
         do {
             int id = Utils.promptIntInput("Enter order id you want to take: ").orElse(-1);
             if (!id_order.containsKey(id)){
-                System.out.println("Invalid");
+                Utils.out().println("Invalid");
+            }
+            else if (!s.takesOrder(id_order.get(id))) {
+                Utils.out().println("The order was taken by another shipper.");
             }
             else{
-                s.takesOrder(id_order.get(id));
+                journal.orderStateChanged(id_order.get(id));
             }
         } while (Utils.promptInput("Continue? (y/n) ").equalsIgnoreCase("y"));
     }
 
     private void shipperFinishesOrder(Shipper s) {
-        System.out.println("----------Deliver order menu-----------");
+        Utils.out().println("----------Deliver order menu-----------");
 
-        List<Order> orders = s.getOrders();
+        OrderBook orders = s.getOrders();
 
         if (orders.isEmpty()) {
-            System.out.println("You did not take any order.");
+            Utils.out().println("You did not take any order.");
             return;
         }
         for (Order order : orders) {
-            System.out.println(order.toString());
+            Utils.out().println(order.toString());
         }
         do {
             int id = Utils.promptIntInput("Enter order id you want to deliver and finish: ").orElse(-1);
-            if (!s.finishesOrder(id,SHIPPER_FEE)) System.out.println("Invalid");
+            Order order = orders.get(id);
+            if (!s.finishesOrder(id,SHIPPER_FEE)) Utils.out().println("Invalid");
+            else {
+                journal.orderStateChanged(order);
+                journal.balanceChanged(s);
+            }
         } while (Utils.promptInput("Continue? (y/n) ").equalsIgnoreCase("y"));
     }
 
     private void viewShipperTask(Shipper s) {
-        System.out.println("------Shipping order--------");
+        Utils.out().println("------Shipping order--------");
         for (Order order : s.getOrders()) {
-            System.out.println(order.toString());
+            Utils.out().println(order.toString());
         }
     }
 
     private void createShop(Customer c) {
-        System.out.println("You didn't have a shop before.");
+        Utils.out().println("You didn't have a shop before.");
         if (!Utils.promptInput("Do you want create shop? (y/[n]) ").equalsIgnoreCase("y")) {
             return;
         }
         String shopName = Utils.promptInput("Enter your shop name: ");
-        System.out.println("Enter your shop address: ");
+        Utils.out().println("Enter your shop address: ");
         Address address = askForUpdateAddress().orElse(null);
         if (address != null) {
-            c.setOwnedShop(new Shop(shopName, address));
-            System.out.println("Create shop successfully");
+            synchronized (c) {
+                if (c.getOwnedShop() != null) {
+                    Utils.out().println("Failed to create shop");
+                    return;
+                }
+                c.setOwnedShop(new Shop(shopName, address));
+            }
+            shops.added(c.getOwnedShop());
+            if (autocomplete != null) autocomplete.shopAdded(c.getOwnedShop());
+            journal.shopCreated(c, c.getOwnedShop());
+            Utils.out().println("Create shop successfully");
         } else {
-            System.out.println("Failed to create shop");
+            Utils.out().println("Failed to create shop");
         }
     }
 
     private void displayShopMenu(Customer c) {
         while (true) {
-            saveData();
-            System.out.println("========= Shop menu =========");
-            System.out.println("Your shop's revenue: " + c.getOwnedShop().getRevenue());
-            System.out.println("1. Change Shop information");
-            System.out.println("2. Add/Delete item");
-            System.out.println("3. Take Orders");
-            System.out.println("4. Transfer money to account");
-            System.out.println("5. View Order");
-            System.out.println("Other key to exit.");
+            compactJournalIfNeeded();
+            Utils.out().println("========= Shop menu =========");
+            Utils.out().println("Your shop's revenue: " + c.getOwnedShop().getRevenue());
+            Utils.out().println("1. Change Shop information");
+            Utils.out().println("2. Add/Delete item");
+            Utils.out().println("3. Take Orders");
+            Utils.out().println("4. Transfer money to account");
+            Utils.out().println("5. View Order");
+            Utils.out().println("Other key to exit.");
 
             String choice = Utils.promptInput("Enter your choice: ");
 
@@ -432,8 +600,8 @@ public final class SystemManager {
                     changeShopInfo(c.getOwnedShop());
                     break;
                 case "2":
-                    System.out.println("1. Add item");
-                    System.out.println("2. Delete item");
+                    Utils.out().println("1. Add item");
+                    Utils.out().println("2. Delete item");
                     int select = Utils.promptIntInput("Enter your choice: ").orElse(-1);
                     switch (select) {
                         case 1:
@@ -443,141 +611,156 @@ public final class SystemManager {
                             deleteItemFromShop(c.getOwnedShop());
                             break;
                         default:
-                            System.out.println("INVALID");
+                            Utils.out().println("INVALID");
                     }
                     break;
                 case "3":
-                    System.out.println("/" + System.identityHashCode(c.getOwnedShop()));
+                    Utils.out().println("/" + System.identityHashCode(c.getOwnedShop()));
                     acceptOrderByShop(c.getOwnedShop());
                     break;
                 case "4":
-                    c.addBalance(c.getOwnedShop().getRevenue());
-                    c.getOwnedShop().setRevenue(0);
-                    System.out.println("Transfer successfully!");
+                    c.credit(c.getOwnedShop().takeRevenue());
+                    journal.balanceChanged(c);
+                    journal.revenueChanged(c.getOwnedShop());
+                    Utils.out().println("Transfer successfully!");
                     break;
                 case "5":
                     for(Order order : c.getOwnedShop().getOrders()){
-                        System.out.println(order);
+                        Utils.out().println(order);
                     }
+                    printPages(token -> getShopOrderHistoryPage(c.getOwnedShop(), token, PAGE_SIZE),
+                            SystemManager::writeEntry, null);
                     break;
                 default:
-                    System.out.println("Exit shop menu.");
+                    Utils.out().println("Exit shop menu.");
                     return;
             }
         }
     }
 
-    private static void addItemToShop(Shop shop) {
+    private void addItemToShop(Shop shop) {
         String itemName = Utils.promptInput("Enter item name: ");
         double price = Utils.promptIntInput("Enter item price: ").orElse(-1);
-        if (price <= 0.0) System.out.println("Invalid price. Stop adding.");
+        if (price <= 0.0) Utils.out().println("Invalid price. Stop adding.");
         int quantity = Utils.promptIntInput("Enter item quantity: ").orElse(-1);
-        if (quantity <= 0) System.out.println("Invalid quantity. Stop adding.");
-        shop.addItem(itemName, price, quantity);
+        if (quantity <= 0) Utils.out().println("Invalid quantity. Stop adding.");
+        journal.stockAdded(shop.addItem(itemName, price, quantity));
     }
 
-    private static void deleteItemFromShop(Shop shop) {
-        System.out.println("List of shop stock: ");
+    private void deleteItemFromShop(Shop shop) {
+        Utils.out().println("List of shop stock: ");
         for (ItemStock itemStock : shop.getStock()) {
-            System.out.println(itemStock.toString());
+            Utils.out().println(itemStock.toString());
         }
         int itemId = Utils.promptIntInput("Enter item id to remove: ").orElse(-1);
-        if (shop.removeItem(itemId))
-            System.out.println("Successfully removed item.");
+        if (shop.removeItem(itemId)) {
+            journal.stockRemoved(shop, itemId);
+            Utils.out().println("Successfully removed item.");
+        }
         else
-            System.out.println("Failed to remove item.");
+            Utils.out().println("Failed to remove item.");
     }
 
     private void acceptOrderByShop(Shop shop) {
         List<Order> ordersByThisShop = shop.takeShopOrdersReadyToTake();
         if (ordersByThisShop.isEmpty()) {
-            System.out.println("Your shop doesn't have any order.");
+            Utils.out().println("Your shop doesn't have any order.");
             return;
         }
         HashMap<Integer,Order> id_order = new HashMap<>();
         for (Order order : ordersByThisShop) {
-            System.out.println("List of order by this shop:");
-            System.out.println(order.toString());
+            Utils.out().println("List of order by this shop:");
+            Utils.out().println(order.toString());
             id_order.put(order.getId(),order);
         }
 
         do {
             int id = Utils.promptIntInput("Enter order id you prepared and want to accept: ").orElse(-1);
 
-            if (id <= 0 || !id_order.containsKey(id)) System.out.println("Invalid id.");
-            else shop.addOrder(id_order.get(id));
+            if (id <= 0 || !id_order.containsKey(id)) Utils.out().println("Invalid id.");
+            else {
+                shop.acceptOrder(id_order.get(id));
+                journal.orderStateChanged(id_order.get(id));
+            }
         } while (Utils.promptInput("Continue? (y/n): ").equalsIgnoreCase("y"));
 
     }
 
-    private static void changeShopInfo(Shop shop) {
-        System.out.println("1. Change shop name");
-        System.out.println("2. Change shop address");
+    private void changeShopInfo(Shop shop) {
+        Utils.out().println("1. Change shop name");
+        Utils.out().println("2. Change shop address");
         String choice = Utils.promptInput("Enter option: ");
 
         switch (choice) {
             case "1":
                 String shopName = Utils.promptInput("Enter new shop name: ");
-                if (!shopName.isEmpty()) shop.setName(shopName);
+                if (!shopName.isEmpty()) {
+                    shop.setName(shopName);
+                    shops.renamed(shop);
+                    if (autocomplete != null) autocomplete.shopRenamed(shop);
+                    journal.shopInfoChanged(shop);
+                }
                 break;
             case "2":
-                System.out.println("Enter new shop address: ");
+                Utils.out().println("Enter new shop address: ");
                 Address address = askForUpdateAddress().orElse(null);
-                if (address != null)
+                if (address != null) {
                     shop.setAddress(address);
-                else
-                    System.out.println("Failed to update address.");
+                    journal.shopInfoChanged(shop);
+                } else
+                    Utils.out().println("Failed to update address.");
                 break;
             default:
-                System.out.println("INVALID");
+                Utils.out().println("INVALID");
         }
     }
 
     private void pay(Customer c) {
         double totalPrice = c.getCart().getTotalPrice();
-        System.out.println("Total price: " + totalPrice);
+        Utils.out().println("Total price: " + totalPrice);
 
         if (!Utils.promptInput("Are you sure you want to pay? (y/[n]) ").equalsIgnoreCase("y")) {
             return;
         }
 
         if (c.getBalance() < totalPrice) {
-            System.out.println("Your balance is not enough");
+            Utils.out().println("Your balance is not enough");
             return;
         }
 
         SystemResponse orderState = createOrder(c);
 
         if (orderState.isSuccess()) {
-            System.out.println("Order successfully");
+            Utils.out().println("Order successfully");
         } else {
-            System.out.println("Failed to create order due to: " + orderState.getMessage());
+            Utils.out().println("Failed to create order due to: " + orderState.getMessage());
         }
     }
 
     private static double deposit() {
-        System.out.println("STK: 00888888888");
-        System.out.println("Name: CTCP SHOPDEE");
-        System.out.println("Bank: VCB");
-        System.out.println("Transfer message: username");
-        System.out.println("===============================");
+        Utils.out().println("STK: 00888888888");
+        Utils.out().println("Name: CTCP SHOPDEE");
+        Utils.out().println("Bank: VCB");
+        Utils.out().println("Transfer message: username");
+        Utils.out().println("===============================");
         return Utils.promptDoubleInput("Enter amount you want to deposit: ").orElse(-1.0);
     }
 
     private void withdraw(User u) {
         double amount = Utils.promptDoubleInput("Enter amount you want to withdraw: ").orElse(-1.0);
-        System.out.println("Success. Amount was withdrawn: " + u.withdraw(amount));
+        Utils.out().println("Success. Amount was withdrawn: " + u.withdraw(amount));
+        journal.balanceChanged(u);
     }
 
     private void updateProfile(User u) {
 
-        System.out.println("Your profile:\n" + u.toString());
-        System.out.println("Choose an action:");
-        System.out.println("1. Change name");
-        System.out.println("2. Change phone");
-        System.out.println("3. Change address");
-        System.out.println("4. Change password");
-        System.out.println("Other key to quit.");
+        Utils.out().println("Your profile:\n" + u.toString());
+        Utils.out().println("Choose an action:");
+        Utils.out().println("1. Change name");
+        Utils.out().println("2. Change phone");
+        Utils.out().println("3. Change address");
+        Utils.out().println("4. Change password");
+        Utils.out().println("Other key to quit.");
 
         String choice = Utils.promptInput("Enter your option: ");
         try {
@@ -585,25 +768,29 @@ public final class SystemManager {
                 case "1":
                     String name = Utils.promptInput("Enter new name: ");
                     u.setName(name);
+                    journal.profileChanged(u);
                     break;
                 case "2":
                     String phone = Utils.promptInput("Enter new phone: ");
                     u.setName(phone);
+                    journal.profileChanged(u);
                     break;
                 case "3":
                     Address address = askForUpdateAddress().orElse(null);
-                    if (address != null)
+                    if (address != null) {
                         u.setAddress(address);
-                    else System.out.println("Failed to update address.");
+                        journal.profileChanged(u);
+                    } else Utils.out().println("Failed to update address.");
                     break;
                 case "4":
                     String password = Utils.promptInput("Enter new password: ");
                     u.setPassword(password);
+                    journal.profileChanged(u);
                 default:
-                    System.out.println("Quit updating profile.");
+                    Utils.out().println("Quit updating profile.");
             }
         } catch (IllegalArgumentException e) {
-            System.out.println("Invalid input! Quit updating profile.");
+            Utils.out().println("Invalid input! Quit updating profile.");
         }
     }
 
@@ -627,7 +814,7 @@ public final class SystemManager {
                 city = Address.City.DANANG;
                 break;
             default:
-                System.out.println("Invalid choice. The address will not be updated.");
+                Utils.out().println("Invalid choice. The address will not be updated.");
                 return Optional.empty();
         }
         String addressLine = Utils.promptInput("Enter address line: ");
@@ -636,20 +823,22 @@ public final class SystemManager {
 
     private static void viewCart(Customer c) {
         if (c.getCart().isEmpty()) {
-            System.out.println("Your cart is empty!");
+            Utils.out().println("Your cart is empty!");
             return;
         }
-        System.out.println("Your Cart: ");
+        Utils.out().println("Your Cart: ");
         for (CartItem item : c.getCart().getItems()) {
-            System.out.println(item.toString());
+            Utils.out().println(item.toString());
         }
     }
 
     private void addItemToCart(Customer c) {
-        System.out.println("========= Add to cart =========");
-        System.out.println("1. View all items");
-        System.out.println("2. Search item");
-        System.out.println("3. Search shop");
+        Utils.out().println("========= Add to cart =========");
+        Utils.out().println("1. View all items");
+        Utils.out().println("2. Search item");
+        Utils.out().println("3. Search shop");
+        Utils.out().println("4. Search by price");
+        Utils.out().println("5. Cheapest offers for a product");
         String choice = Utils.promptInput("Enter your choice: ");
         switch (choice) {
             case "1":
@@ -663,30 +852,39 @@ public final class SystemManager {
                 String shopName = Utils.promptInput("Enter shop name: ");
                 searchShop(shopName);
                 break;
+            case "4":
+                double minPrice = Utils.promptDoubleInput("Enter minimum price: ").orElse(0.0);
+                double maxPrice = Utils.promptDoubleInput("Enter maximum price: ").orElse(Double.MAX_VALUE);
+                printProducts(findProductsByPrice(minPrice, maxPrice, true));
+                break;
+            case "5":
+                String productName = Utils.promptInput("Enter product name: ");
+                printProducts(findCheapestOffers(productName, CHEAPEST_OFFERS, true));
+                break;
             default:
-                System.out.println("Invalid option. Stop adding item to cart.");
+                Utils.out().println("Invalid option. Stop adding item to cart.");
                 return;
         }
         while (true) {
             int id = Utils.promptIntInput("Enter product id you want to add: ").orElse(-1);
             if (id == -1) {
-                System.out.println("Invalid id.");
+                Utils.out().println("Invalid id.");
                 if (Utils.promptInput("Continue? (y/[n]) ").equalsIgnoreCase("y")) continue;
                 else break;
             }
             ItemStock product = getProductById(id).orElse(null);
             if (product == null) {
-                System.out.println("Cannot find the product. Item will not added");
+                Utils.out().println("Cannot find the product. Item will not added");
                 if (Utils.promptInput("Continue? (y/[n]) ").equalsIgnoreCase("y")) continue;
                 else break;
             }
             int quantity = Utils.promptIntInput("Enter item quantity you want to add: ").orElse(-1);
             if (quantity <= 0) {
-                System.out.println("Invalid quantity. Item is not added.");
+                Utils.out().println("Invalid quantity. Item is not added.");
                 if (Utils.promptInput("Continue? (y/[n]) ").equalsIgnoreCase("y")) continue;
                 else break;
             }
-            if (!c.addToCart(product, quantity)) System.out.println("Add failed!!!");
+            if (!c.addToCart(product, quantity)) Utils.out().println("Add failed!!!");
             if (!Utils.promptInput("Continue adding product? (y/[n]) ").equalsIgnoreCase("y")) {
                 break;
             }
@@ -697,13 +895,13 @@ public final class SystemManager {
         while (true) {
             int id = Utils.promptIntInput("Enter cart id you want to remove: ").orElse(-1);
             if (id == -1 || !c.getCart().existsInCart(id)) {
-                System.out.println("Invalid id. Item will not remove.");
+                Utils.out().println("Invalid id. Item will not remove.");
                 if (Utils.promptInput("Continue? (y/[n]) ").equalsIgnoreCase("y")) continue;
                 else break;
             }
             int quantity = Utils.promptIntInput("Enter quantity you want to remove: ").orElse(-1);
             if (quantity < 0) {
-                System.out.println("Invalid quantity. Item will not remove.");
+                Utils.out().println("Invalid quantity. Item will not remove.");
                 if (Utils.promptInput("Continue? (y/[n]) ").equalsIgnoreCase("y")) continue;
                 else break;
             }
@@ -715,61 +913,275 @@ public final class SystemManager {
     }
 
     private void viewAllItem() {
-        for (Shop shop : getAllShops()) {
-            List<ItemStock> items = shop.getStock();
-            if (items.isEmpty()) {
-                System.out.printf("Shop %s currently has no product.\n", shop.getName());
-                continue;
-            }
-            System.out.println("- Shop: " + shop.getName());
-            for (ItemStock item : items) {
-                System.out.println(item.toString());
-            }
-        }
+        printPages(token -> getItemsPage(token, PAGE_SIZE), groupedByShop(),
+                "Currently there is no product on our shopping mall.");
     }
 
     private void searchItem(String itemName) {
-        List<ItemStock> result = findProducts(itemName);
-        if (result.isEmpty()) {
-            System.out.println("Currently there is no product with that name on our shopping mall.");
+        printSuggestions(suggestProducts(itemName));
+        printPages(token -> findProductsPage(itemName, token, PAGE_SIZE), SystemManager::writeEntry,
+                "Currently there is no product with that name on our shopping mall.");
+    }
+
+    private static void printProducts(List<ItemStock> products) {
+        if (products.isEmpty()) {
+            Utils.out().println("Currently there is no product like that on our shopping mall.");
             return;
         }
-        result.forEach(product -> System.out.println(product.toString()));
+        products.forEach(product -> Utils.out().println(product.toString()));
     }
 
     private void searchShop(String shopName) {
-        List<Shop> result = findShops(shopName);
-        if (result.isEmpty()) {
-            System.out.println("Currently there is no shop with that name on our shopping mall.");
+        printSuggestions(suggestShops(shopName));
+        if (findShops(shopName).isEmpty()) {
+            Utils.out().println("Currently there is no shop with that name on our shopping mall.");
             return;
         }
-        result.forEach(shop -> System.out.println(shop.toString()));
+        printPages(token -> findShopItemsPage(shopName, token, PAGE_SIZE), groupedByShop(),
+                "The shops with that name currently have no product.");
+    }
+
+    private static void printSuggestions(List<String> names) {
+        if (!names.isEmpty()) Utils.out().println("Suggestions: " + String.join(", ", names));
+    }
+
+    // Names starting with the prefix, the ones with the most in stock first
+    public List<String> suggestProducts(String prefix) {
+        return autocomplete == null ? new ArrayList<>() : autocomplete.suggestProducts(prefix);
     }
+
+    public List<String> suggestShops(String prefix) {
+        return autocomplete == null ? new ArrayList<>() : autocomplete.suggestShops(prefix);
+    }
+
+    private interface PageSource<T> {
+        Page<T> fetch(String token) throws IOException;
+    }
+
+    private interface EntryWriter<T> {
+        void write(T entry, Writer out) throws IOException;
+    }
+
+    // Shows the listing a page at a time through one buffered writer, asking before fetching the next page.
+    // Nothing is printed for an empty listing when emptyMessage is null.
+    private static <T> void printPages(PageSource<T> source, EntryWriter<T> writer, String emptyMessage) {
+        // not closed, that would close the console or the session's connection
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(Utils.out(), Utils.outCharset()), 16 * 1024);
+        try {
+            Page<T> page = source.fetch(null);
+            if (page.items().isEmpty() && emptyMessage != null) Utils.out().println(emptyMessage);
+            while (true) {
+                for (T entry : page.items()) {
+                    writer.write(entry, out);
+                }
+                out.flush();
+                if (page.isLast() || !Utils.promptInput("Show more? (y/[n]) ").equalsIgnoreCase("y")) return;
+                page = source.fetch(page.next());
+            }
+        } catch (IOException e) {
+            Utils.out().println(e.getMessage());
+            Utils.out().println("System message: Error reading data!");
+        }
+    }
+
+    private static void writeEntry(Object entry, Writer out) throws IOException {
+        out.write(entry.toString());
+        out.write(System.lineSeparator());
+    }
+
+    // Writes stock under a header line for each shop, the pages come shop by shop
+    private static EntryWriter<ItemStock> groupedByShop() {
+        Shop[] current = {null};
+        return (itemStock, out) -> {
+            if (itemStock.getShop() != current[0]) {
+                current[0] = itemStock.getShop();
+                out.write("- Shop: " + current[0].getName() + System.lineSeparator());
+            }
+            writeEntry(itemStock, out);
+        };
+    }
+
+    // All stock, shop by shop in shop id order and in stock order within a shop
+    public Page<ItemStock> getItemsPage(String token, int size) throws IOException {
+        checkPageSize(size);
+        return itemsPage(getAllShops(), token, size);
+    }
+
+    // The stock of the shops whose name contains the text
+    public Page<ItemStock> findShopItemsPage(String shopName, String token, int size) throws IOException {
+        checkPageSize(size);
+        return itemsPage(findShops(shopName), token, size);
+    }
+
+    // Same matches as findProducts, in stock id order
+    public Page<ItemStock> findProductsPage(String productName, String token, int size) {
+        checkPageSize(size);
+        int after = token == null ? 0 : parseToken(token, 1)[0];
+        List<ItemStock> found = productSearch != null
+                ? productSearch.find(productName, after, size + 1)
+                : findProducts(productName).stream()
+                        .filter(itemStock -> itemStock.getId() > after)
+                        .sorted(Comparator.comparingInt(ItemStock::getId))
+                        .limit(size + 1L)
+                        .toList();
+        return page(found, size, last -> Integer.toString(last.getId()));
+    }
+
+    // Shops in id order
+    public Page<Shop> getShopsPage(String token, int size) {
+        checkPageSize(size);
+        return shopsPage(getAllShops(), token, size);
+    }
+
+    public Page<Shop> findShopsPage(String shopName, String token, int size) {
+        checkPageSize(size);
+        return shopsPage(findShops(shopName), token, size);
+    }
+
+    // Confirmed orders of the customer, oldest first
+    public Page<Order> getOrderHistoryPage(Customer customer, String token, int size) throws IOException {
+        checkPageSize(size);
+        if (orderArchive == null) return new Page<>(new ArrayList<>(), null);
+        int from = token == null ? 0 : parseToken(token, 1)[0];
+        List<Order> history = orderArchive.customerHistory(customer, shops::find, from, size);
+        int next = from + size;
+        return new Page<>(history, next < orderArchive.customerHistorySize(customer) ? Integer.toString(next) : null);
+    }
+
+    // Confirmed orders of the shop, oldest first
+    public Page<Order> getShopOrderHistoryPage(Shop shop, String token, int size) throws IOException {
+        checkPageSize(size);
+        if (orderArchive == null) return new Page<>(new ArrayList<>(), null);
+        int from = token == null ? 0 : parseToken(token, 1)[0];
+        List<Order> history = orderArchive.shopHistory(shop, usersById::get, from, size);
+        int next = from + size;
+        return new Page<>(history, next < orderArchive.shopHistorySize(shop) ? Integer.toString(next) : null);
+    }
+
+    // Token "<shop id>:<stock number>" of the last stock shown; the shop lists are in id order
+    private static Page<ItemStock> itemsPage(List<Shop> shopList, String token, int size) throws IOException {
+        int[] after = token == null ? new int[]{0, -1} : parseToken(token, 2);
+        List<ItemStock> items = new ArrayList<>();
+        for (int i = firstShopFrom(shopList, after[0]); i < shopList.size() && items.size() <= size; i++) {
+            Shop shop = shopList.get(i);
+            items.addAll(shop.stockAfter(shop.getId() == after[0] ? after[1] : -1, size + 1 - items.size()));
+        }
+        return page(items, size, last -> last.getShop().getId() + ":" + last.getStockNumber());
+    }
+
+    private static Page<Shop> shopsPage(List<Shop> shopList, String token, int size) {
+        int from = firstShopFrom(shopList, token == null ? 0 : parseToken(token, 1)[0] + 1);
+        List<Shop> found = new ArrayList<>(shopList.subList(from, shopList.size() - from <= size ? shopList.size() : from + size + 1));
+        return page(found, size, last -> Integer.toString(last.getId()));
+    }
+
+    // Index of the first shop with an id of at least shopId in a list ordered by id
+    private static int firstShopFrom(List<Shop> shopList, int shopId) {
+        int low = 0;
+        int high = shopList.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (shopList.get(mid).getId() < shopId) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    // Cuts what was fetched, one more than the page size when there is more, to the page and its token
+    private static <T> Page<T> page(List<T> fetched, int size, Function<T, String> token) {
+        if (fetched.size() <= size) return new Page<>(fetched, null);
+        List<T> items = new ArrayList<>(fetched.subList(0, size));
+        return new Page<>(items, token.apply(items.get(size - 1)));
+    }
+
+    private static void checkPageSize(int size) {
+        if (size <= 0) throw new IllegalArgumentException("Page size must be positive: " + size);
+    }
+
+    private static int[] parseToken(String token, int parts) {
+        String[] values = token.split(":");
+        if (values.length != parts) throw new IllegalArgumentException("Invalid page token: " + token);
+        int[] result = new int[parts];
+        try {
+            for (int i = 0; i < parts; i++) {
+                result[i] = Integer.parseInt(values[i]);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page token: " + token);
+        }
+        return result;
+    }
+    // Only the matching stock gets an object, the rest can stay in the catalog
     public List<ItemStock> findProducts(String productName) {
+        if (productSearch != null) return productSearch.find(productName);
+        String key = Utils.searchKey(productName);
         ArrayList<ItemStock> result = new ArrayList<>();
-        for (ItemStock itemStock : getAllItemStocks()) {
-            if (itemStock.getItem().getName().contains(productName)) {
-                result.add(itemStock);
+        for (Shop shop : getAllShops()) {
+            List<Integer> matches = new ArrayList<>();
+            try {
+                shop.forEachStock((id, name, price, quantity) -> {
+                    if (Utils.searchKey(name).contains(key)) matches.add(id);
+                });
+            } catch (IOException e) {
+                Utils.out().println(e.getMessage());
+                continue;
+            }
+            for (int id : matches) {
+                result.add(shop.findStock(id));
             }
         }
         return result;
     }
 
+    // Cheapest first; without the index, the catalog is scanned and sorted
+    public List<ItemStock> findProductsByPrice(double minPrice, double maxPrice, boolean inStockOnly) {
+        if (prices != null) return prices.inRange(minPrice, maxPrice, inStockOnly);
+        return getAllItemStocks().stream()
+                .filter(itemStock -> itemStock.getPrice() >= minPrice && itemStock.getPrice() <= maxPrice)
+                .filter(itemStock -> !inStockOnly || itemStock.getQuantity() > 0)
+                .sorted(Comparator.comparingDouble(ItemStock::getPrice).thenComparingInt(ItemStock::getId))
+                .toList();
+    }
+
+    // The count cheapest offers of exactly this product across all shops
+    public List<ItemStock> findCheapestOffers(String productName, int count, boolean inStockOnly) {
+        if (prices != null) return prices.cheapest(productName, count, inStockOnly);
+        String key = Utils.searchKey(productName);
+        return getAllItemStocks().stream()
+                .filter(itemStock -> itemStock.getItem().searchKey().equals(key))
+                .filter(itemStock -> !inStockOnly || itemStock.getQuantity() > 0)
+                .sorted(Comparator.comparingDouble(ItemStock::getPrice).thenComparingInt(ItemStock::getId))
+                .limit(count)
+                .toList();
+    }
+
+    // Stock with an object is in the registry, stock still in the catalog is found through the catalog's id index
     public Optional<ItemStock> getProductById(int id) {
-        for (ItemStock itemStock : getAllItemStocks()) {
-            if (itemStock.getId() == id) return Optional.of(itemStock);
+        ItemStock itemStock = StockRegistry.find(id);
+        if (itemStock == null && catalog != null) {
+            Shop shop = shops.find(catalog.shopOf(id));
+            if (shop != null) itemStock = shop.findStock(id);
         }
-        return Optional.empty();
+        return Optional.ofNullable(itemStock);
+    }
+
+    // Orders of the customer dated from inclusive to to exclusive, oldest first, live and archived alike. The stream
+    // reads archived orders a day at a time as it is consumed, a failed read surfaces as UncheckedIOException.
+    public Stream<Order> getCustomerOrders(Customer customer, Date from, Date to) {
+        return timeline.customerOrders(customer.getId(), from.getTime(), to.getTime(), usersById::get);
+    }
+
+    public Stream<Order> getShopOrders(Shop shop, Date from, Date to) {
+        return timeline.shopOrders(shop.getId(), from.getTime(), to.getTime(), usersById::get);
+    }
+
+    // Orders placed with the shops of the city
+    public Stream<Order> getCityOrders(Address.City city, Date from, Date to) {
+        return timeline.cityOrders(city, from.getTime(), to.getTime(), usersById::get);
     }
 
     public List<Shop> findShops(String shopName) {
-        ArrayList<Shop> result = new ArrayList<>();
-        for (Shop shop : getAllShops()) {
-            if (shop.getName().contains(shopName)) {
-                result.add(shop);
-            }
-        }
-        return result;
+        return shops.findByName(shopName);
     }
 
     public List<ItemStock> getAllItemStocks() {
@@ -780,68 +1192,85 @@ public final class SystemManager {
         return res;
     }
 
+    // Read-only view of the registry, in shop id order
     public List<Shop> getAllShops() {
-        List<Shop> res = new ArrayList<>();
-        for (User user : users.values()) {
-            if (user.getRole() != UserRole.Customer) continue;
-            Customer customer = (Customer) user;
-            Shop shop = customer.getOwnedShop();
-            if (shop != null)
-                res.add(shop);
-        }
-        return res;
+        return shops.all();
     }
 
-
     public List<Order> getOrdersReadyToShip(Shipper shipper) {
-        return orders.stream()
-                .filter(order ->
-                        order.getOrderState().equals(OrderState.SHOP_ACCEPTED) || order.getOrderState().equals(OrderState.AT_WAREHOUSE)
-                )
-                .filter(order -> order.getLocation().city() == shipper.getAddress().city())
-                .toList();
+        return dispatch.readyToShip(shipper.getAddress().city());
     }
 
+    // Blocks until an order is ready to ship in the shipper's city, empty if none shows up before the timeout
+    public Optional<Order> awaitOrderReadyToShip(Shipper shipper, long timeoutMillis) throws InterruptedException {
+        return Optional.ofNullable(dispatch.awaitReadyToShip(shipper.getAddress().city(), timeoutMillis));
+    }
+
+    // Holds the customer while the orders are made. The stock of every line is reserved first, all or nothing and
+    // without locking the shops, so concurrent buyers can never take more than there is.
     public SystemResponse createOrder(Customer customer) {
         if (customer == null) return new SystemResponse(false, "Invalid customer when creating order.");
         Cart cart;
-        try {
-            cart = customer.buy(); // get all items from cart then delete user cart
-        } catch (Error e) {
-            return new SystemResponse(false, "Not enough balance to make order.");
-        }
-
-        if (cart.isEmpty()) return new SystemResponse(false, "Empty cart.");
+        synchronized (customer) {
+            if (customer.getCart().isEmpty()) return new SystemResponse(false, "Empty cart.");
 
-        // list all shop from all items in the cart
-        HashSet<Shop> allShopFromCart = new HashSet<>();
-        cart.getItems().forEach(cartItem -> allShopFromCart.add(cartItem.getItemStock().getShop()));
-
-        // create a list of orders corresponding to the shop then add to the order list
-        allShopFromCart.forEach(shop -> {
-            OrderContent orderContent = OrderContent.filterFromCustomerCart(shop, cart);
-            orders.add(new Order(customer, new Date(), orderContent));
-            customer.addOrder(new Order(customer, new Date(), orderContent));
-            shop.addOrder(new Order(customer, new Date(), orderContent));
-        });
-
-        // reduce the quantity in the shop when create order
-        cart.getItems().forEach(cartItem -> {
-            ItemStock itemStock = cartItem.getItemStock();
-            itemStock.setQuantity(itemStock.getQuantity() - cartItem.getQuantity());
-        });
+            Reservation reservation = Reservation.reserve(customer.getCart().getItems());
+            if (!reservation.isComplete()) {
+                journalStock(reservation, Reservation.Status.RELEASED);
+                return new SystemResponse(false, "Not enough stock.\n" + reservation, reservation);
+            }
+            try {
+                cart = customer.buy(); // get all items from cart then delete user cart
+            } catch (Error e) {
+                reservation.release();
+                journalStock(reservation, Reservation.Status.RESERVED);
+                return new SystemResponse(false, "Not enough balance to make order.");
+            }
+            journalStock(reservation, Reservation.Status.RESERVED);
+
+            // list all shop from all items in the cart
+            HashSet<Shop> allShopFromCart = new HashSet<>();
+            cart.getItems().forEach(cartItem -> allShopFromCart.add(cartItem.getItemStock().getShop()));
+
+            // create a list of orders corresponding to the shop then add to the order list
+            allShopFromCart.forEach(shop -> {
+                OrderContent orderContent = OrderContent.filterFromCustomerCart(shop, cart);
+                Order order = new Order(customer, new Date(), orderContent);
+                orders.add(order);
+                dispatch.add(order);
+                timeline.add(order);
+                customer.addOrder(order);
+                shop.addOrder(order);
+                journal.orderCreated(order, profit, Money.share(Money.toUnits(order.getTotalPrice()), PROFIT));
+            });
+            journal.balanceChanged(customer);
+        }
 
-        profit += cart.getTotalPrice() * PROFIT;
+        // with no lock held, sessions waiting for the disk share one sync.
+        // A snapshot holds whatever the journal lost, so one more try after writing one.
+        if (!flush()) {
+            writeSnapshot();
+            if (!flush()) return new SystemResponse(false, "Order could not be saved, it may be lost on restart.");
+        }
         return new SystemResponse(true, "Order successfully created.");
     }
 
+    // Records the quantity of the stock of the lines in that state, taken or given back
+    private void journalStock(Reservation reservation, Reservation.Status status) {
+        for (Reservation.Line line : reservation.getLines()) {
+            if (line.status() == status) journal.stockChanged(line.cartItem().getItemStock());
+        }
+    }
+
     public boolean registerCustomer(String username, String password, String name, String phone, Address address) {
         if (username == null || password == null) return false;
         if (users.containsKey(username)) {
             return false;
         }
-        users.put(username, new Customer(username, password, name, phone, address));
-        saveData();
+        Customer customer = new Customer(username, password, name, phone, address);
+        if (users.putIfAbsent(username, customer) != null) return false; // taken by a concurrent registration
+        usersById.put(customer.getId(), customer);
+        journal.userRegistered(customer);
         return true;
     }
 
@@ -850,8 +1279,10 @@ public final class SystemManager {
         if (users.containsKey(username)) {
             return false;
         }
-        users.put(username, new Shipper(username, password, name, phone, address));
-        saveData();
+        Shipper shipper = new Shipper(username, password, name, phone, address);
+        if (users.putIfAbsent(username, shipper) != null) return false; // taken by a concurrent registration
+        usersById.put(shipper.getId(), shipper);
+        journal.userRegistered(shipper);
         return true;
     }
 
@@ -1,12 +1,20 @@
 package MainSystem;
 
+import Item.Reservation;
+
 public class SystemResponse {
     private final boolean success;
     private final String message;
+    private final Reservation reservation; // line by line outcome when stock could not be reserved, null otherwise
 
     public SystemResponse(boolean success, String message) {
+        this(success, message, null);
+    }
+
+    public SystemResponse(boolean success, String message, Reservation reservation) {
         this.success = success;
         this.message = message;
+        this.reservation = reservation;
     }
 
     public boolean isSuccess() {
@@ -16,4 +24,8 @@ public class SystemResponse {
     public String getMessage() {
         return message;
     }
+
+    public Reservation getReservation() {
+        return reservation;
+    }
 }
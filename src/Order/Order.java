@@ -4,6 +4,7 @@ import Shop.Shop;
 import User.Customer;
 import User.Shipper;
 import Utils.Address;
+import Utils.IdAllocator;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIdentityInfo;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -19,24 +20,26 @@ import java.util.Objects;
 )
 public class Order {
     private final int id;
-    private Date orderedDate;
+    private volatile Date orderedDate;
     
     private final Customer customer;
     
     private final Shop shop;
     
-    private OrderState orderState;
-    private Shipper shipper;
+    // shared by the sessions of the customer, the shop and the shippers; moves go through changeState
+    private volatile OrderState orderState;
+    private volatile Shipper shipper;
     
-    private Address location;
+    private volatile Address location;
 
     private final double totalPrice;
     private final List<OrderItem> items;
 
-    private static int currentId = 10000; // from 10_000 to 19_999
+    private static final IdAllocator ids = new IdAllocator(10_000); // 10_001 - 19_999, 110_001 - 119_999, ...
 
+    // Also used to rebuild persisted orders whose customer and shop are resolved separately
     @JsonCreator
-    private Order(
+    public Order(
             @JsonProperty("id") int id,
             @JsonProperty("orderedDate") Date orderedDate,
             @JsonProperty("customer")  Customer customer,
@@ -56,17 +59,12 @@ public class Order {
         this.orderState = orderState;
         this.shipper = shipper;
         this.location = location;
-        if (id > currentId) {
-            currentId = id;
-        }
+        ids.restore(id);
     }
 
     // an order contents must come from only one shop, using OrderContent to ensure this
     public Order( Customer customer, Date orderedDate,  OrderContent content) {
-        if ((currentId - 19_999) % 100_000 == 0) {
-            currentId += 100_000 - 9999;
-        }
-        this.id = ++currentId;
+        this.id = ids.allocate();
         this.customer = customer;
         this.orderedDate = orderedDate;
         this.totalPrice = content.getTotalPrice();
@@ -77,6 +75,11 @@ public class Order {
         shipper = null;
     }
 
+    // Keeps new ids above the ones of orders that are archived and therefore never loaded
+    public static void reserveIdsUpTo(int id) {
+        ids.restore(id);
+    }
+
     public int getId() {
         return id;
     }
@@ -113,10 +116,17 @@ public class Order {
         return orderState;
     }
 
-    public void setOrderState( OrderState orderState) {
+    public synchronized void setOrderState( OrderState orderState) {
         this.orderState = orderState;
     }
 
+    // Moves the order on if it is still in the expected state. False means another session moved it first.
+    public synchronized boolean changeState(OrderState expected, OrderState next) {
+        if (orderState != expected) return false;
+        orderState = next;
+        return true;
+    }
+
     public  Address getLocation() {
         return location;
     }
@@ -0,0 +1,111 @@
+package Order;
+
+import Utils.IntObjectMap;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// The orders of one user or shop: found and removed by id in constant time, iterated in the order they were added,
+// which is the order they were placed in. A linked list threaded through an IntObjectMap of its nodes.
+// An order can be removed while the book is being iterated, the iteration carries on with the order after it,
+// including orders added after the one it stands on was removed.
+// Safe to share between sessions: every operation holds the book's monitor, and iterators take it for each step,
+// so they see the book as it is when they get there rather than a copy.
+public final class OrderBook implements Iterable<Order> {
+    private static final class Node {
+        final Order order;
+        Node previous;
+        Node next;
+        boolean removed;
+
+        Node(Order order) {
+            this.order = order;
+        }
+    }
+
+    private final IntObjectMap<Node> nodes = new IntObjectMap<>();
+    private Node head;
+    private Node tail;
+
+    // Adds the order at the end, does nothing if an order with its id is already there
+    public synchronized void add(Order order) {
+        if (nodes.containsKey(order.getId())) return;
+        Node node = new Node(order);
+        node.previous = tail;
+        if (tail == null) head = node;
+        else tail.next = node;
+        tail = node;
+        nodes.put(order.getId(), node);
+    }
+
+    public synchronized Order get(int orderId) {
+        Node node = nodes.get(orderId);
+        return node == null ? null : node.order;
+    }
+
+    public synchronized boolean contains(int orderId) {
+        return nodes.containsKey(orderId);
+    }
+
+    // Returns the removed order, null if there was none with the id
+    public synchronized Order remove(int orderId) {
+        Node node = nodes.remove(orderId);
+        if (node == null) return null;
+        if (node.previous == null) head = node.next;
+        else node.previous.next = node.next;
+        if (node.next == null) tail = node.previous;
+        else node.next.previous = node.previous;
+        node.removed = true; // previous is left as it is for iterators standing on this node
+        return node.order;
+    }
+
+    public boolean remove(Order order) {
+        return remove(order.getId()) != null;
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return nodes.size() == 0;
+    }
+
+    public Stream<Order> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    @Override
+    public Iterator<Order> iterator() {
+        return new Iterator<>() {
+            private Node current;
+
+            @Override
+            public boolean hasNext() {
+                return following() != null;
+            }
+
+            @Override
+            public Order next() {
+                Node node = following();
+                if (node == null) throw new NoSuchElementException();
+                current = node;
+                return node.order;
+            }
+
+            // The node after the last one passed that is still in the book. When that one was removed, its next may
+            // be stale (a removed tail never learns of later additions), so the walk goes back to the nearest node
+            // still in the book and carries on from there: only removed nodes lie between the two.
+            private Node following() {
+                synchronized (OrderBook.this) {
+                    if (current == null) return head;
+                    Node back = current;
+                    while (back != null && back.removed) back = back.previous;
+                    return back == null ? head : back.next;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,25 @@
+package Order;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Fired by Shop.acceptOrder, Shipper.takesOrder, Shipper.finishesOrder and Customer.confirmOrder.
+// Journal replay sets order states directly; indexes are built from the replayed state and then follow from here.
+public final class OrderEvents {
+    private static final List<OrderListener> listeners = new CopyOnWriteArrayList<>();
+
+    private OrderEvents() {
+    }
+
+    public static void addListener(OrderListener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(OrderListener listener) {
+        listeners.remove(listener);
+    }
+
+    public static void orderChanged(Order order) {
+        for (OrderListener listener : listeners) listener.orderChanged(order);
+    }
+}
@@ -0,0 +1,7 @@
+package Order;
+
+// Told when an order moves on to another state or place, so that indexes over the orders can follow it.
+// Register with OrderEvents. Calls come from the thread making the change, after the order is updated.
+public interface OrderListener {
+    void orderChanged(Order order);
+}
@@ -0,0 +1,222 @@
+package Persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Performs the journal appends and snapshot writes on a dedicated thread, in submission order.
+// Work submitted within a short window is written as one batch: the records are appended with a single
+// gathering write and one fsync, and when a batch holds several snapshots only the newest one is written,
+// since it already contains everything before it; the older ones are discarded with what they left on disk.
+// Callers of flush() get group commit: the first one to wait holds the batch open for at most maxBatchDelay,
+// so concurrent checkouts waiting in that window share a single fsync.
+// A batch whose records could not be appended leaves a gap in the journal, flush() reports it until the next
+// snapshot is written, since only a snapshot holds the lost changes again.
+final class BackgroundWriter {
+    private static final long COALESCE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    // snapshot is null for a journal record
+    private record Task(Future<SnapshotStore.Snapshot> snapshot, byte[] bytes) {
+    }
+
+    private final Path journalPath;
+    private final long maxBatchDelayNanos;
+    private final CommitMetrics metrics = new CommitMetrics();
+    private final Object lock = new Object();
+    private final Thread thread;
+    private List<Task> pending = new ArrayList<>();
+    private long submitted;
+    private long completed;
+    private boolean flushRequested;
+    private long flushDeadline; // System.nanoTime() by which a requested flush starts writing
+    private boolean closed;
+    private boolean damaged; // a batch of records was lost since the last snapshot
+    private FileChannel journal;
+    private boolean intact = true; // writer thread only, copied to damaged after each batch
+
+    BackgroundWriter(Path journalPath, long maxBatchDelayMillis) {
+        this.journalPath = journalPath;
+        this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxBatchDelayMillis));
+        this.thread = new Thread(this::run, "background-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void append(byte[] record) {
+        submit(new Task(null, record));
+    }
+
+    // Writes the snapshot then empties the journal, records appended afterwards go to the fresh journal.
+    // The snapshot may still be being encoded, the writer waits for it when it gets there.
+    void checkpoint(Future<SnapshotStore.Snapshot> snapshot) {
+        submit(new Task(snapshot, null));
+    }
+
+    // Blocks until everything submitted before this call is on disk.
+    // False when the journal has lost records since the last snapshot, or the wait was interrupted.
+    boolean flush() {
+        long start = System.nanoTime();
+        synchronized (lock) {
+            long target = submitted;
+            if (completed >= target) return !damaged;
+            if (!flushRequested) {
+                flushRequested = true;
+                flushDeadline = start + maxBatchDelayNanos;
+                lock.notifyAll();
+            }
+            try {
+                while (completed < target) lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        metrics.recordCommit(System.nanoTime() - start);
+        synchronized (lock) {
+            return !damaged;
+        }
+    }
+
+    CommitMetrics metrics() {
+        return metrics;
+    }
+
+    void close() {
+        flush();
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+            if (journal != null) journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void submit(Task task) {
+        synchronized (lock) {
+            if (closed) throw new IllegalStateException("Writer is closed");
+            pending.add(task);
+            submitted++;
+            lock.notifyAll();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Task> batch;
+            long batchEnd;
+            synchronized (lock) {
+                try {
+                    while (pending.isEmpty() && !closed) lock.wait();
+                    // let a burst of changes pile up, for a shorter time once somebody waits for them
+                    long deadline = System.nanoTime() + COALESCE_NANOS;
+                    while (!closed) {
+                        long until = flushRequested ? Math.min(deadline, flushDeadline) : deadline;
+                        long remaining = until - System.nanoTime();
+                        if (remaining <= 0) break;
+                        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (pending.isEmpty() && closed) return;
+                batch = pending;
+                batchEnd = submitted;
+                pending = new ArrayList<>();
+                flushRequested = false;
+            }
+
+            try {
+                write(batch);
+            } catch (Throwable e) {
+                // the thread must survive, or every later flush() would wait forever
+                System.out.println(e);
+                System.out.println("System message: Error writing journal!");
+                intact = false;
+            }
+
+            synchronized (lock) {
+                completed = batchEnd;
+                damaged = !intact;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void write(List<Task> batch) {
+        int newest = -1;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i).snapshot() == null) continue;
+            if (newest >= 0) discard(batch.get(newest).snapshot());
+            newest = i;
+        }
+        int start = 0;
+        if (newest >= 0) {
+            SnapshotStore.Snapshot snapshot = null;
+            try {
+                snapshot = batch.get(newest).snapshot().get();
+                snapshot.write();
+                journal().truncate(0);
+                start = newest + 1;
+                intact = true;
+            } catch (IOException | ExecutionException | RuntimeException e) {
+                // keep every record of the batch in the journal, nothing is lost
+                System.out.println(e instanceof ExecutionException ? e.getCause().getMessage() : e.getMessage());
+                System.out.println("System message: Error saving data!");
+                if (snapshot != null) snapshot.discard();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        List<ByteBuffer> records = new ArrayList<>();
+        for (int i = start; i < batch.size(); i++) {
+            if (batch.get(i).snapshot() == null) records.add(ByteBuffer.wrap(batch.get(i).bytes()));
+        }
+        if (records.isEmpty()) return;
+        try {
+            FileChannel channel = journal();
+            ByteBuffer[] buffers = records.toArray(new ByteBuffer[0]);
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(false);
+            metrics.recordBatch(buffers.length);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.out.println("System message: Error writing journal!");
+            intact = false;
+        }
+    }
+
+    // Removes the files of a snapshot that will not be written, one that failed to encode left none
+    private static void discard(Future<SnapshotStore.Snapshot> snapshot) {
+        try {
+            snapshot.get().discard();
+        } catch (ExecutionException e) {
+            // nothing was left on disk
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private FileChannel journal() throws IOException {
+        if (journal == null) {
+            journal = FileChannel.open(journalPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return journal;
+    }
+}
@@ -0,0 +1,270 @@
+package Persistence;
+
+import Item.Item;
+import Item.ItemStock;
+import MainSystem.SystemDataHolder;
+import Order.Order;
+import Order.OrderItem;
+import Order.OrderState;
+import Shop.Shop;
+import Shop.StockSource;
+import User.Customer;
+import User.Shipper;
+import User.User;
+import User.UserRole;
+import Utils.Address;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+// Compact binary snapshot (data.bin).
+// Layout: int MAGIC, short VERSION, then tagged sections (see SectionOutputStream) in this order:
+// META (profit), USERS, SHOPS, STOCKS, ORDERS, and a single END byte.
+// Entities refer to each other with their int ids (0 = none), enums are stored by ordinal,
+// so the reader never has to resolve nested objects or identity references.
+public final class BinarySnapshotCodec implements SnapshotCodec {
+    static final int MAGIC = 0x53484F50; // "SHOP"
+    static final short VERSION = 1;
+
+    private static final int END = 0;
+    private static final int META = 1;
+    private static final int USERS = 2;
+    private static final int SHOPS = 3;
+    private static final int STOCKS = 4;
+    private static final int ORDERS = 5;
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private record StockRecord(int id, int shopId, String name, double price, int quantity) {
+    }
+
+    // Sessions keep running while a snapshot is encoded, so every section is listed first and its count taken from
+    // that list: counting the live collections and then walking them again could disagree with what is written
+    @Override
+    public void write(SystemDataHolder data, OutputStream output) throws IOException {
+        List<User> users = new ArrayList<>(data.users().values());
+        List<Shop> shops = new ArrayList<>();
+        for (User user : users) {
+            if (user instanceof Customer customer && customer.getOwnedShop() != null) {
+                shops.add(customer.getOwnedShop());
+            }
+        }
+        List<StockRecord> stock = new ArrayList<>();
+        for (Shop shop : shops) {
+            shop.forEachStock((id, name, price, quantity) ->
+                    stock.add(new StockRecord(id, shop.getId(), name, price, quantity)));
+        }
+
+        try (DataOutputStream file = new DataOutputStream(new BufferedOutputStream(output))) {
+            file.writeInt(MAGIC);
+            file.writeShort(VERSION);
+            SectionOutputStream sections = new SectionOutputStream(file);
+            DataOutputStream out = new DataOutputStream(sections);
+
+            sections.beginSection(META);
+            out.writeDouble(data.profit());
+            sections.endSection();
+
+            sections.beginSection(USERS);
+            out.writeInt(users.size());
+            for (User user : users) {
+                writeUser(out, user);
+            }
+            sections.endSection();
+
+            sections.beginSection(SHOPS);
+            out.writeInt(shops.size());
+            for (Shop shop : shops) {
+                out.writeInt(shop.getId());
+                writeString(out, shop.getName());
+                out.writeDouble(shop.getRevenue());
+                writeAddress(out, shop.getAddress());
+            }
+            sections.endSection();
+
+            sections.beginSection(STOCKS);
+            out.writeInt(stock.size());
+            for (StockRecord record : stock) {
+                out.writeInt(record.id());
+                out.writeInt(record.shopId());
+                writeString(out, record.name());
+                out.writeDouble(record.price());
+                out.writeInt(record.quantity());
+            }
+            sections.endSection();
+
+            sections.beginSection(ORDERS);
+            out.writeInt(data.orders().size());
+            for (Order order : data.orders()) {
+                writeOrder(out, order);
+            }
+            sections.endSection();
+
+            file.writeByte(END);
+        }
+    }
+
+    @Override
+    public SystemDataHolder read(InputStream in, StockSource catalog) throws IOException {
+        DataInputStream file = new DataInputStream(in);
+        if (file.readInt() != MAGIC) throw new IOException("Not a binary snapshot");
+        short version = file.readShort();
+        if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+        SectionInputStream sections = new SectionInputStream(file);
+        return new Reader(sections, new DataInputStream(sections), new SnapshotLinker(catalog)).read();
+    }
+
+    private static void writeUser(DataOutputStream out, User user) throws IOException {
+        out.writeByte(user.getRole().ordinal());
+        out.writeInt(user.getId());
+        writeString(out, user.getUsername());
+        writeString(out, user.getPassword());
+        writeString(out, user.getName());
+        out.writeDouble(user.getBalance());
+        writeString(out, user.getPhone());
+        writeAddress(out, user.getAddress());
+        if (user instanceof Customer customer) {
+            out.writeInt(customer.getOwnedShop() == null ? 0 : customer.getOwnedShop().getId());
+        }
+    }
+
+    private static void writeOrder(DataOutputStream out, Order order) throws IOException {
+        out.writeInt(order.getId());
+        out.writeLong(order.getOrderedDate() == null ? NO_DATE : order.getOrderedDate().getTime());
+        out.writeInt(order.getCustomer().getId());
+        out.writeInt(order.getShop().getId());
+        out.writeByte(order.getOrderState().ordinal());
+        out.writeInt(order.getShipper() == null ? 0 : order.getShipper().getId());
+        writeAddress(out, order.getLocation());
+        out.writeDouble(order.getTotalPrice());
+        out.writeInt(order.getItems().size());
+        for (OrderItem item : order.getItems()) {
+            writeString(out, item.item().getName());
+            out.writeInt(item.quantity());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static void writeAddress(DataOutputStream out, Address address) throws IOException {
+        out.writeBoolean(address != null);
+        if (address == null) return;
+        writeString(out, address.addressLine());
+        out.writeByte(address.city().ordinal());
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static Address readAddress(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) return null;
+        return new Address(readString(in), Address.City.values()[in.readUnsignedByte()]);
+    }
+
+    // Decodes the sections of one file into a SnapshotLinker
+    private static final class Reader {
+        private final SectionInputStream sections;
+        private final DataInputStream in;
+        private final SnapshotLinker linker;
+
+        private Reader(SectionInputStream sections, DataInputStream in, SnapshotLinker linker) {
+            this.sections = sections;
+            this.in = in;
+            this.linker = linker;
+        }
+
+        private SystemDataHolder read() throws IOException {
+            int tag;
+            while ((tag = sections.nextSection()) != END) {
+                switch (tag) {
+                    case -1 -> throw new IOException("Snapshot is truncated");
+                    case META -> linker.setProfit(in.readDouble());
+                    case USERS -> readUsers();
+                    case SHOPS -> readShops();
+                    case STOCKS -> {
+                        if (linker.hasCatalog()) sections.skipSection();
+                        else readStocks();
+                    }
+                    case ORDERS -> readOrders();
+                    default -> sections.skipSection();
+                }
+            }
+            return linker.link();
+        }
+
+        private void readUsers() throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                UserRole role = UserRole.values()[in.readUnsignedByte()];
+                int id = in.readInt();
+                String username = readString(in);
+                String password = readString(in);
+                String name = readString(in);
+                double balance = in.readDouble();
+                String phone = readString(in);
+                Address address = readAddress(in);
+                if (role == UserRole.Customer) {
+                    Customer customer = new Customer(id, username, password, name, balance, phone, address, null);
+                    linker.addUser(customer, in.readInt());
+                } else {
+                    linker.addUser(new Shipper(id, username, password, name, balance, phone, address), 0);
+                }
+            }
+        }
+
+        private void readShops() throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                String name = readString(in);
+                double revenue = in.readDouble();
+                Address address = readAddress(in);
+                linker.addShop(Shop.of(id, name, new ArrayList<>(), revenue, address));
+            }
+        }
+
+        private void readStocks() throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                int shopId = in.readInt();
+                String itemName = readString(in);
+                double price = in.readDouble();
+                int quantity = in.readInt();
+                linker.addStock(shopId, new ItemStock(id, new Item(itemName), price, quantity, null));
+            }
+        }
+
+        private void readOrders() throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                long date = in.readLong();
+                int customerId = in.readInt();
+                int shopId = in.readInt();
+                OrderState state = OrderState.values()[in.readUnsignedByte()];
+                int shipperId = in.readInt();
+                Address location = readAddress(in);
+                double totalPrice = in.readDouble();
+                int itemCount = in.readInt();
+                List<OrderItem> items = new ArrayList<>(itemCount);
+                for (int j = 0; j < itemCount; j++) {
+                    items.add(new OrderItem(new Item(readString(in)), in.readInt()));
+                }
+                linker.addOrder(new SnapshotLinker.OrderRecord(id, date == NO_DATE ? null : new Date(date),
+                        customerId, shopId, state, shipperId, location, totalPrice, items));
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package Persistence;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters for the journal's group commit: how many records share one fsync, and how long callers of
+// Journal.flush() wait for their batch. Updated from the writer thread and the waiting callers.
+public final class CommitMetrics {
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final AtomicLong maxBatch = new AtomicLong();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+
+    void recordBatch(int size) {
+        batches.increment();
+        records.add(size);
+        maxBatch.accumulateAndGet(size, Math::max);
+    }
+
+    void recordCommit(long nanos) {
+        commits.increment();
+        commitNanos.add(nanos);
+        maxCommitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public double getAverageBatchSize() {
+        long count = batches.sum();
+        return count == 0 ? 0.0 : (double) records.sum() / count;
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatch.get();
+    }
+
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    public double getAverageCommitMillis() {
+        long count = commits.sum();
+        return count == 0 ? 0.0 : commitNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxCommitMillis() {
+        return maxCommitNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Journal: %d batch(es), %.1f record(s) per batch (max %d), %d commit wait(s), "
+                        + "%.2f ms average (max %.2f ms)",
+                getBatches(), getAverageBatchSize(), getMaxBatchSize(),
+                getCommits(), getAverageCommitMillis(), getMaxCommitMillis());
+    }
+}
@@ -0,0 +1,93 @@
+package Persistence;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Reading side of CompressedOutputStream, the MAGIC is expected to be consumed already.
+// Every block is checked against its CRC32 before any of it is handed out.
+final class CompressedInputStream extends InputStream {
+    private final DataInputStream in;
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+    private final byte[] block = new byte[CompressedOutputStream.BLOCK_SIZE];
+    private byte[] compressed = new byte[0];
+    private int position;
+    private int count;
+    private boolean ended;
+
+    CompressedInputStream(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == count && !nextBlock()) return -1;
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        if (position == count && !nextBlock()) return -1;
+        int n = Math.min(length, count - position);
+        System.arraycopy(block, position, bytes, offset, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (ended) return false;
+        int rawLength;
+        int length;
+        int checksum;
+        try {
+            rawLength = in.readInt();
+            if (rawLength == 0) {
+                ended = true;
+                return false;
+            }
+            length = in.readInt();
+            checksum = in.readInt();
+            // checked before allocating, a damaged length must not ask for gigabytes
+            if (rawLength < 0 || rawLength > block.length || length < 0
+                    || length > CompressedOutputStream.MAX_COMPRESSED) {
+                throw new IOException("Snapshot is corrupted");
+            }
+            if (compressed.length < length) compressed = new byte[length];
+            in.readFully(compressed, 0, length);
+        } catch (EOFException e) {
+            throw new EOFException("Snapshot is truncated");
+        }
+
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        try {
+            count = 0;
+            while (count < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(block, count, rawLength - count);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                count += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Snapshot is corrupted: " + e.getMessage());
+        }
+        crc.reset();
+        crc.update(block, 0, count);
+        if (count != rawLength || (int) crc.getValue() != checksum) {
+            throw new IOException("Snapshot is corrupted: checksum mismatch");
+        }
+        position = 0;
+        return true;
+    }
+}
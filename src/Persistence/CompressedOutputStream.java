@@ -0,0 +1,88 @@
+package Persistence;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Deflates what is written in independent blocks of up to BLOCK_SIZE bytes:
+//   int MAGIC, then per block [int raw length][int compressed length][int CRC32 of the raw bytes][compressed bytes],
+//   and a zero raw length after the last block.
+// Each block carries its own checksum, so a damaged or cut off file is reported at the block where it goes wrong,
+// and the missing end marker tells a truncated file from a complete one.
+final class CompressedOutputStream extends OutputStream {
+    static final int MAGIC = 0x53445A31; // "SDZ1"
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final int MAX_COMPRESSED = BLOCK_SIZE + BLOCK_SIZE / 1000 + 64; // deflate never grows a block past this
+
+    private final DataOutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final CRC32 crc = new CRC32();
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private byte[] compressed = new byte[MAX_COMPRESSED];
+    private int count;
+    private boolean finished;
+
+    CompressedOutputStream(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.out.writeInt(MAGIC);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == block.length) writeBlock();
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (count == block.length) writeBlock();
+            int n = Math.min(length, block.length - count);
+            System.arraycopy(bytes, offset, block, count, n);
+            count += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    // Writes the last block and the end marker, leaving the underlying stream open
+    void finish() throws IOException {
+        if (finished) return;
+        finished = true;
+        try {
+            writeBlock();
+            out.writeInt(0);
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0) return;
+        crc.reset();
+        crc.update(block, 0, count);
+        deflater.reset();
+        deflater.setInput(block, 0, count);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        out.writeInt(count);
+        out.writeInt(length);
+        out.writeInt((int) crc.getValue());
+        out.write(compressed, 0, length);
+        count = 0;
+    }
+}
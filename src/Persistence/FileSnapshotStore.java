@@ -0,0 +1,68 @@
+package Persistence;
+
+import MainSystem.SystemDataHolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+// A snapshot kept in one file, encoded by a SnapshotCodec and optionally compressed (see SnapshotFiles).
+// When catalogPath is set, a MappedCatalog of the stock is saved next to it and loading leaves the stock in the
+// catalog, as long as the catalog was built from this very snapshot.
+public final class FileSnapshotStore implements SnapshotStore {
+    private final Path path;
+    private final SnapshotCodec codec;
+    private final boolean compress;
+    private final Path catalogPath;
+
+    public FileSnapshotStore(Path path, SnapshotCodec codec, boolean compress, Path catalogPath) {
+        this.path = path;
+        this.codec = codec;
+        this.compress = compress;
+        this.catalogPath = catalogPath;
+    }
+
+    @Override
+    public SystemDataHolder load() throws IOException {
+        SnapshotFiles.deleteLeftovers(path);
+        if (catalogPath != null) SnapshotFiles.deleteLeftovers(catalogPath);
+        MappedCatalog catalog = catalogPath == null ? null : MappedCatalog.open(catalogPath);
+        if (catalog != null) {
+            try (SnapshotFiles.FingerprintInputStream in = new SnapshotFiles.FingerprintInputStream(SnapshotFiles.open(path))) {
+                SystemDataHolder data = codec.read(in, catalog);
+                if (in.matches(catalog)) return data;
+            }
+            System.out.println("System message: Catalog is out of date, loading the stock from " + path + ".");
+        }
+        try (InputStream in = SnapshotFiles.open(path)) {
+            return codec.read(in, null);
+        }
+    }
+
+    // Encodes straight into the file, so neither the content nor its compressed form is ever held in memory whole
+    @Override
+    public Snapshot encode(SystemDataHolder data) throws IOException {
+        SnapshotFiles.FileOutput out = new SnapshotFiles.FileOutput(path, compress);
+        try {
+            codec.write(data, out);
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            out.discard();
+            throw e;
+        }
+        byte[] catalog = catalogPath == null ? null
+                : MappedCatalog.encode(JsonSnapshotWriter.ownedShops(data.users().values()), out.crc(), out.length());
+        return new Snapshot() {
+            @Override
+            public void write() throws IOException {
+                out.commit();
+                if (catalog != null) SnapshotFiles.write(catalogPath, catalog, false);
+            }
+
+            @Override
+            public void discard() {
+                out.discard();
+            }
+        };
+    }
+}
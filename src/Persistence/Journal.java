@@ -0,0 +1,210 @@
+package Persistence;
+
+import Item.ItemStock;
+import Order.Order;
+import Order.OrderItem;
+import Shop.Shop;
+import User.User;
+import Utils.Money;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Append-only log of mutations made since the last snapshot.
+// Every record is one line holding a compact JSON array: a one letter type code followed by its fields.
+// Records carry absolute values (new balance, new quantity, ...) so replaying one twice is harmless. The one
+// exception is the profit, which replay adds up from the share each order record carries (see orderCreated).
+// Records are encoded on the caller's thread and written to disk by a BackgroundWriter, call flush() to wait for them.
+// Several sessions may append at once; concurrent flush() calls are committed together (see BackgroundWriter).
+public final class Journal {
+    static final String USER_REGISTERED = "U";
+    static final String PROFILE_CHANGED = "P";
+    static final String BALANCE_CHANGED = "B";
+    static final String SHOP_CREATED = "S";
+    static final String SHOP_INFO_CHANGED = "I";
+    static final String REVENUE_CHANGED = "R";
+    static final String STOCK_ADDED = "A";
+    static final String STOCK_REMOVED = "D";
+    static final String STOCK_CHANGED = "Q";
+    static final String ORDER_CREATED = "O";
+    static final String ORDER_STATE_CHANGED = "T";
+
+    private final Path path;
+    private final ObjectMapper mapper;
+    private final BackgroundWriter writer;
+    private long size;
+    private long version;
+
+    public Journal(Path path, ObjectMapper mapper) {
+        this.path = path;
+        this.mapper = mapper;
+        this.writer = new BackgroundWriter(path, PersistenceConfig.maxBatchDelayMillis());
+        try {
+            this.size = Files.exists(path) ? Files.size(path) : 0L;
+        } catch (IOException e) {
+            this.size = 0L;
+        }
+    }
+
+    public void userRegistered(User user) {
+        // serialized on its own so the subtype id is kept, which a nested Object field would drop
+        append(USER_REGISTERED, mapper.valueToTree(user));
+    }
+
+    public void profileChanged(User user) {
+        append(PROFILE_CHANGED, user.getId(), user.getName(), user.getPhone(), user.getPassword(), user.getAddress());
+    }
+
+    // Balances, revenue and profit change without a lock, like stock quantities, and are read with the journal held
+    // for the same reason
+    public synchronized void balanceChanged(User user) {
+        append(BALANCE_CHANGED, user.getId(), user.getBalance());
+    }
+
+    public void shopCreated(User owner, Shop shop) {
+        append(SHOP_CREATED, owner.getId(), shop);
+    }
+
+    public void shopInfoChanged(Shop shop) {
+        append(SHOP_INFO_CHANGED, shop.getId(), shop.getName(), shop.getAddress());
+    }
+
+    public synchronized void revenueChanged(Shop shop) {
+        append(REVENUE_CHANGED, shop.getId(), shop.getRevenue());
+    }
+
+    public void stockAdded(ItemStock itemStock) {
+        append(STOCK_ADDED, itemStock.getShop().getId(), itemStock);
+    }
+
+    public void stockRemoved(Shop shop, int itemStockId) {
+        append(STOCK_REMOVED, shop.getId(), itemStockId);
+    }
+
+    // The quantity is read with the journal held: reservations change it without a lock, and this way the last record
+    // of a stock always carries its latest quantity
+    public synchronized void stockChanged(ItemStock itemStock) {
+        append(STOCK_CHANGED, itemStock.getId(), itemStock.getQuantity(), itemStock.getPrice());
+    }
+
+    // The order's share of the profit, in minor units, is added to profit with the journal held, so the profit
+    // taken at a checkpoint's cut holds the shares of exactly the orders recorded before it
+    public void orderCreated(Order order, LongAdder profit, long share) {
+        List<Object> items = new ArrayList<>();
+        for (OrderItem item : order.getItems()) {
+            items.add(List.of(item.item().getName(), item.quantity()));
+        }
+        appendAnd(() -> profit.add(share), ORDER_CREATED, order.getId(), order.getOrderedDate().getTime(),
+                order.getCustomer().getId(), order.getShop().getId(), order.getTotalPrice(), items,
+                Money.toAmount(share));
+    }
+
+    // Read with the journal held too: two sessions moving one order must leave its latest state last
+    public synchronized void orderStateChanged(Order order) {
+        int shipperId = order.getShipper() == null ? 0 : order.getShipper().getId();
+        append(ORDER_STATE_CHANGED, order.getId(), order.getOrderState(), shipperId, order.getLocation());
+    }
+
+    // Bytes appended since the last checkpoint, used to decide when to fold the journal into a new snapshot
+    public synchronized long size() {
+        return size;
+    }
+
+    // Number of records appended so far, the state is dirty while it differs from the version last snapshotted
+    public synchronized long version() {
+        return version;
+    }
+
+    // Feeds every complete record to the handler, in the order they were written.
+    // A torn last line (crash in the middle of an append) is ignored.
+    public void replay(Consumer<JsonNode> handler) throws IOException {
+        if (!Files.exists(path)) return;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                JsonNode record;
+                try {
+                    record = mapper.readTree(line);
+                } catch (IOException e) {
+                    System.out.println("System message: Ignoring damaged journal record.");
+                    break;
+                }
+                handler.accept(record);
+            }
+        }
+    }
+
+    public interface SnapshotEncoder {
+        // profit is the one taken at the cut, in minor units
+        SnapshotStore.Snapshot encode(long profit) throws IOException;
+    }
+
+    // Writes a snapshot and drops the records appended before this call. The cut is placed in the journal first and
+    // the state encoded after it, while sessions go on changing it: a change is made before its record is appended,
+    // so every dropped record is in the snapshot, and the records after the cut hold absolute values that replay
+    // to the same result whether or not the encoding already saw them. The profit is summed at the cut instead,
+    // since replay adds the shares of the orders recorded after it. Returns the version the snapshot contains.
+    public long checkpoint(LongAdder profit, SnapshotEncoder encoder) throws IOException {
+        CompletableFuture<SnapshotStore.Snapshot> snapshot = new CompletableFuture<>();
+        long cut;
+        long profitAtCut;
+        synchronized (this) {
+            writer.checkpoint(snapshot);
+            size = 0L;
+            cut = version;
+            profitAtCut = profit.sum();
+        }
+        try {
+            snapshot.complete(encoder.encode(profitAtCut));
+        } catch (IOException | RuntimeException e) {
+            snapshot.completeExceptionally(e);
+            throw e;
+        }
+        return cut;
+    }
+
+    // Waits until every record appended so far is durable, false when some of them could not be written
+    public boolean flush() {
+        return writer.flush();
+    }
+
+    public CommitMetrics metrics() {
+        return writer.metrics();
+    }
+
+    public void close() {
+        writer.close();
+    }
+
+    private void append(Object... fields) {
+        appendAnd(null, fields);
+    }
+
+    // Runs whileHeld, if any, in the same critical section that appends the record
+    private void appendAnd(Runnable whileHeld, Object... fields) {
+        try {
+            byte[] record = (mapper.writeValueAsString(Arrays.asList(fields)) + "\n").getBytes(StandardCharsets.UTF_8);
+            synchronized (this) {
+                writer.append(record);
+                size += record.length;
+                version++;
+                if (whileHeld != null) whileHeld.run();
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.out.println("System message: Error writing journal!");
+        }
+    }
+}
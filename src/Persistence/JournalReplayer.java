@@ -0,0 +1,198 @@
+package Persistence;
+
+import Item.Item;
+import Item.ItemStock;
+import MainSystem.SystemDataHolder;
+import Order.Order;
+import Order.OrderItem;
+import Order.OrderState;
+import Shop.Shop;
+import Shop.StockSource;
+import User.Customer;
+import User.Shipper;
+import User.User;
+import User.UserRole;
+import Utils.Address;
+import Utils.Money;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+// Re-applies journal records on top of the state loaded from the last snapshot.
+// Records about entities that cannot be found are skipped, records creating entities that already exist are ignored.
+// Stock of shops that still read it from a catalog is only looked up when a record refers to it.
+public final class JournalReplayer {
+    private final ObjectMapper mapper;
+    private final SystemDataHolder data;
+    private final HashMap<Integer, User> users = new HashMap<>();
+    private final HashMap<Integer, Shop> shops = new HashMap<>();
+    private final HashMap<Integer, ItemStock> stocks = new HashMap<>();
+    private final HashMap<Integer, Order> orders = new HashMap<>();
+    private long profit; // minor units
+    private int applied;
+    private StockSource catalog; // shared by the shops whose stock is not loaded yet
+
+    private JournalReplayer(ObjectMapper mapper, SystemDataHolder data) {
+        this.mapper = mapper;
+        this.data = data;
+        this.profit = Money.toUnits(data.profit());
+        for (User user : data.users().values()) {
+            users.put(user.getId(), user);
+            if (user.getRole() == UserRole.Customer && ((Customer) user).getOwnedShop() != null) {
+                indexShop(((Customer) user).getOwnedShop());
+            }
+        }
+        for (Order order : data.orders()) {
+            orders.put(order.getId(), order);
+        }
+    }
+
+    // Returns the state with every journal record applied
+    public static SystemDataHolder replay(Journal journal, ObjectMapper mapper, SystemDataHolder data) throws IOException {
+        JournalReplayer replayer = new JournalReplayer(mapper, data);
+        journal.replay(replayer::apply);
+        if (replayer.applied > 0) {
+            System.out.printf("System message: Recovered %d change(s) from journal.\n", replayer.applied);
+        }
+        return new SystemDataHolder(data.users(), Money.toAmount(replayer.profit), data.orders());
+    }
+
+    private void apply(JsonNode record) {
+        try {
+            switch (record.get(0).asText()) {
+                case Journal.USER_REGISTERED -> registerUser(mapper.treeToValue(record.get(1), User.class));
+                case Journal.PROFILE_CHANGED -> changeProfile(record);
+                case Journal.BALANCE_CHANGED -> {
+                    User user = users.get(record.get(1).asInt());
+                    if (user != null) user.setBalance(record.get(2).asDouble());
+                }
+                case Journal.SHOP_CREATED -> createShop(record);
+                case Journal.SHOP_INFO_CHANGED -> {
+                    Shop shop = shops.get(record.get(1).asInt());
+                    if (shop != null) {
+                        shop.setName(record.get(2).asText());
+                        shop.setAddress(mapper.treeToValue(record.get(3), Address.class));
+                    }
+                }
+                case Journal.REVENUE_CHANGED -> {
+                    Shop shop = shops.get(record.get(1).asInt());
+                    if (shop != null) shop.setRevenue(record.get(2).asDouble());
+                }
+                case Journal.STOCK_ADDED -> addStock(record);
+                case Journal.STOCK_REMOVED -> {
+                    Shop shop = shops.get(record.get(1).asInt());
+                    if (shop != null) shop.removeItem(record.get(2).asInt());
+                    stocks.remove(record.get(2).asInt());
+                }
+                case Journal.STOCK_CHANGED -> {
+                    ItemStock itemStock = findStock(record.get(1).asInt());
+                    if (itemStock != null) {
+                        itemStock.setQuantity(record.get(2).asInt());
+                        itemStock.setPrice(record.get(3).asDouble());
+                    }
+                }
+                case Journal.ORDER_CREATED -> createOrder(record);
+                case Journal.ORDER_STATE_CHANGED -> changeOrderState(record);
+                default -> {
+                    return;
+                }
+            }
+            applied++;
+        } catch (JsonProcessingException | RuntimeException e) {
+            System.out.println("System message: Skipping invalid journal record: " + e.getMessage());
+        }
+    }
+
+    private void registerUser(User user) {
+        if (users.containsKey(user.getId()) || data.users().containsKey(user.getUsername())) return;
+        data.users().put(user.getUsername(), user);
+        users.put(user.getId(), user);
+    }
+
+    private void changeProfile(JsonNode record) throws JsonProcessingException {
+        User user = users.get(record.get(1).asInt());
+        if (user == null) return;
+        user.setName(record.get(2).asText());
+        if (!record.get(3).asText().equals(user.getPhone())) user.setPhone(record.get(3).asText());
+        if (!record.get(4).asText().equals(user.getPassword())) user.setPassword(record.get(4).asText());
+        user.setAddress(mapper.treeToValue(record.get(5), Address.class));
+    }
+
+    private void createShop(JsonNode record) throws JsonProcessingException {
+        User owner = users.get(record.get(1).asInt());
+        if (!(owner instanceof Customer customer) || customer.getOwnedShop() != null) return;
+        Shop shop = mapper.treeToValue(record.get(2), Shop.class);
+        customer.setOwnedShop(shop);
+        indexShop(shop);
+    }
+
+    private void addStock(JsonNode record) throws JsonProcessingException {
+        Shop shop = shops.get(record.get(1).asInt());
+        ItemStock itemStock = mapper.treeToValue(record.get(2), ItemStock.class);
+        if (shop == null || findStock(itemStock.getId()) != null) return;
+        shop.attachStock(itemStock);
+        stocks.put(itemStock.getId(), itemStock);
+    }
+
+    private void createOrder(JsonNode record) {
+        // the profit taken at the cut never holds the share of an order recorded after it, even one the fuzzy
+        // snapshot already has
+        profit += Money.toUnits(record.get(7).asDouble());
+        int id = record.get(1).asInt();
+        User customer = users.get(record.get(3).asInt());
+        Shop shop = shops.get(record.get(4).asInt());
+        if (orders.containsKey(id) || !(customer instanceof Customer) || shop == null) return;
+
+        List<OrderItem> items = new ArrayList<>();
+        for (JsonNode item : record.get(6)) {
+            items.add(new OrderItem(new Item(item.get(0).asText()), item.get(1).asInt()));
+        }
+        Order order = new Order(id, new Date(record.get(2).asLong()), (Customer) customer, shop,
+                OrderState.CREATED, null, shop.getAddress(), record.get(5).asDouble(), items);
+        orders.put(id, order);
+        data.orders().add(order);
+        customer.addOrder(order);
+        shop.addOrder(order);
+    }
+
+    private void changeOrderState(JsonNode record) throws JsonProcessingException {
+        Order order = orders.get(record.get(1).asInt());
+        if (order == null) return;
+        order.setOrderState(OrderState.valueOf(record.get(2).asText()));
+        order.setLocation(mapper.treeToValue(record.get(4), Address.class));
+
+        Shipper oldShipper = order.getShipper();
+        Shipper newShipper = users.get(record.get(3).asInt()) instanceof Shipper s ? s : null;
+        if (oldShipper != newShipper) {
+            if (oldShipper != null) oldShipper.getOrders().remove(order);
+            if (newShipper != null) newShipper.addOrder(order);
+            order.setShipper(newShipper);
+        }
+    }
+
+    private void indexShop(Shop shop) {
+        shops.put(shop.getId(), shop);
+        if (shop.stockSource() != null) {
+            catalog = shop.stockSource();
+            return;
+        }
+        for (ItemStock itemStock : shop.getStock()) {
+            stocks.put(itemStock.getId(), itemStock);
+        }
+    }
+
+    private ItemStock findStock(int id) {
+        ItemStock itemStock = stocks.get(id);
+        if (itemStock == null && catalog != null) {
+            Shop shop = shops.get(catalog.shopOf(id));
+            if (shop != null && (itemStock = shop.findStock(id)) != null) stocks.put(id, itemStock);
+        }
+        return itemStock;
+    }
+}
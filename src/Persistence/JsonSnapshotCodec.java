@@ -0,0 +1,30 @@
+package Persistence;
+
+import MainSystem.SystemDataHolder;
+import Shop.StockSource;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// data.json, written in the normalized layout and read in either the normalized or the original one
+public final class JsonSnapshotCodec implements SnapshotCodec {
+    private final ObjectMapper mapper;
+
+    public JsonSnapshotCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public SystemDataHolder read(InputStream in, StockSource catalog) throws IOException {
+        SnapshotLinker linker = new SnapshotLinker(catalog);
+        JsonSnapshotReader.readInto(in, mapper, linker);
+        return linker.link();
+    }
+
+    @Override
+    public void write(SystemDataHolder data, OutputStream out) throws IOException {
+        JsonSnapshotWriter.write(data, out, mapper);
+    }
+}
@@ -0,0 +1,174 @@
+package Persistence;
+
+import Item.Item;
+import Item.ItemStock;
+import MainSystem.SystemDataHolder;
+import Order.OrderItem;
+import Order.OrderState;
+import Shop.Shop;
+import User.Customer;
+import User.Shipper;
+import User.User;
+import User.UserRole;
+import Utils.Address;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+// Reads data.json token by token instead of loading the whole document as one String.
+// Every user, shop, stock and order is read as a small tree and handed to a SnapshotLinker, which resolves
+// the id references, so peak memory follows the object graph and not the file size.
+// Both layouts are understood: the normalized one written by JsonSnapshotWriter, and the original one where
+// "users" is a map of full objects and each order embeds its customer.
+public final class JsonSnapshotReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ObjectMapper mapper;
+    private final SnapshotLinker linker;
+
+    private JsonSnapshotReader(ObjectMapper mapper, SnapshotLinker linker) {
+        this.mapper = mapper;
+        this.linker = linker;
+    }
+
+    public static SystemDataHolder read(Path path, ObjectMapper mapper) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             InputStream in = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE)) {
+            return read(in, mapper);
+        }
+    }
+
+    public static SystemDataHolder read(InputStream in, ObjectMapper mapper) throws IOException {
+        SnapshotLinker linker = new SnapshotLinker(null);
+        readInto(in, mapper, linker);
+        return linker.link();
+    }
+
+    // Decodes one document into the linker without linking it, used for the files of a sharded snapshot
+    static void readInto(InputStream in, ObjectMapper mapper, SnapshotLinker linker) throws IOException {
+        JsonSnapshotReader reader = new JsonSnapshotReader(mapper, linker);
+        try (JsonParser parser = mapper.getFactory().createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE); // in belongs to the caller
+            reader.readDocument(parser);
+        }
+    }
+
+    // Decodes one entry of "orders", used by the order archive
+    static SnapshotLinker.OrderRecord readOrder(JsonNode node, ObjectMapper mapper) throws IOException {
+        return new JsonSnapshotReader(mapper, null).toOrder(node);
+    }
+
+    private void readDocument(JsonParser parser) throws IOException {
+        expect(parser.nextToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL) continue;
+            switch (field) {
+                case "users" -> {
+                    if (value == JsonToken.START_OBJECT) readLegacyUsers(parser);
+                    else readArray(parser, node -> linker.addUser(toUser(node), node.path("ownedShop").asInt(0)));
+                }
+                case "shops" -> readArray(parser, node -> linker.addShop(toShop(node)));
+                case "stocks" -> {
+                    if (linker.hasCatalog()) parser.skipChildren();
+                    else readArray(parser, node -> linker.addStock(node.path("shop").asInt(), toItemStock(node)));
+                }
+                case "orders" -> readArray(parser, node -> linker.addOrder(toOrder(node)));
+                case "profit" -> linker.setProfit(parser.getValueAsDouble());
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    // Original layout: a map from username to the full user, owned shops and their stock included
+    private void readLegacyUsers(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            linker.addUser(mapper.readValue(parser, User.class), 0);
+        }
+    }
+
+    private interface NodeHandler {
+        void accept(JsonNode node) throws IOException;
+    }
+
+    private static void readArray(JsonParser parser, NodeHandler handler) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            handler.accept(parser.readValueAsTree());
+        }
+    }
+
+    private User toUser(JsonNode node) throws IOException {
+        int id = node.path("id").asInt();
+        String username = node.path("username").asText();
+        String password = node.path("password").asText();
+        String name = node.path("name").asText();
+        double balance = node.path("balance").asDouble();
+        String phone = node.path("phone").asText();
+        Address address = toAddress(node.path("address"));
+        if (UserRole.valueOf(node.path("role").asText()) == UserRole.Customer) {
+            return new Customer(id, username, password, name, balance, phone, address, null);
+        }
+        return new Shipper(id, username, password, name, balance, phone, address);
+    }
+
+    private Shop toShop(JsonNode node) throws IOException {
+        return Shop.of(node.path("id").asInt(), node.path("name").asText(), new ArrayList<>(),
+                node.path("revenue").asDouble(), toAddress(node.path("address")));
+    }
+
+    private static ItemStock toItemStock(JsonNode node) {
+        return new ItemStock(node.path("id").asInt(), new Item(node.path("name").asText()),
+                node.path("price").asDouble(), node.path("quantity").asInt(), null);
+    }
+
+    // In the original layout the customer is a full object and the shop and shipper are usually ids,
+    // in the normalized one all three are ids
+    private SnapshotLinker.OrderRecord toOrder(JsonNode node) throws IOException {
+        List<OrderItem> items = new ArrayList<>();
+        for (JsonNode item : node.path("items")) {
+            String name = item.has("item") ? item.path("item").path("name").asText() : item.path("name").asText();
+            items.add(new OrderItem(new Item(name), item.path("quantity").asInt()));
+        }
+        return new SnapshotLinker.OrderRecord(
+                node.path("id").asInt(),
+                node.hasNonNull("orderedDate") ? new Date(node.get("orderedDate").asLong()) : null,
+                refId(node.path("customer")),
+                refId(node.path("shop")),
+                OrderState.valueOf(node.path("orderState").asText()),
+                refId(node.path("shipper")),
+                toAddress(node.path("location")),
+                node.path("totalPrice").asDouble(),
+                items
+        );
+    }
+
+    private Address toAddress(JsonNode node) throws IOException {
+        return node.isObject() ? mapper.treeToValue(node, Address.class) : null;
+    }
+
+    private static int refId(JsonNode node) {
+        if (node.isObject()) return node.path("id").asInt(0);
+        return node.isNumber() ? node.asInt() : 0;
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Malformed data file: expected " + expected + " but found " + actual);
+        }
+    }
+}
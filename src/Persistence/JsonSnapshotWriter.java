@@ -0,0 +1,178 @@
+package Persistence;
+
+import MainSystem.SystemDataHolder;
+import Order.Order;
+import Order.OrderItem;
+import Shop.Shop;
+import User.Customer;
+import User.User;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Writes data.json in the normalized layout (version 2):
+// {"version":2, "profit":..., "users":[...], "shops":[...], "stocks":[...], "orders":[...]}
+// Users point to their shop, stocks to their shop and orders to their customer, shop and shipper by int id (0 = none),
+// so an order no longer embeds a copy of its customer.
+// The sharded store writes each section, or a pair of them, as a document of its own.
+final class JsonSnapshotWriter {
+    static final int VERSION = 2;
+
+    private final JsonGenerator gen;
+
+    private JsonSnapshotWriter(JsonGenerator gen) {
+        this.gen = gen;
+    }
+
+    static void write(SystemDataHolder data, OutputStream out, ObjectMapper mapper) throws IOException {
+        List<Shop> shops = ownedShops(data.users().values());
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            JsonSnapshotWriter writer = new JsonSnapshotWriter(gen);
+            writer.begin();
+            gen.writeNumberField("profit", data.profit());
+            writer.writeUsers(data.users().values());
+            writer.writeShops(shops);
+            writer.writeOrders(data.orders());
+            gen.writeEndObject();
+        }
+    }
+
+    // {"version":2, "profit":..., "users":[...]}
+    static void writeUsers(Collection<User> users, double profit, OutputStream out, ObjectMapper mapper) throws IOException {
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            JsonSnapshotWriter writer = new JsonSnapshotWriter(gen);
+            writer.begin();
+            gen.writeNumberField("profit", profit);
+            writer.writeUsers(users);
+            gen.writeEndObject();
+        }
+    }
+
+    // {"version":2, "shops":[...], "stocks":[...]}
+    static void writeShops(List<Shop> shops, OutputStream out, ObjectMapper mapper) throws IOException {
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            JsonSnapshotWriter writer = new JsonSnapshotWriter(gen);
+            writer.begin();
+            writer.writeShops(shops);
+            gen.writeEndObject();
+        }
+    }
+
+    // {"version":2, "orders":[...]}
+    static void writeOrders(Iterable<Order> orders, OutputStream out, ObjectMapper mapper) throws IOException {
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            JsonSnapshotWriter writer = new JsonSnapshotWriter(gen);
+            writer.begin();
+            writer.writeOrders(orders);
+            gen.writeEndObject();
+        }
+    }
+
+    // A single order object in the same form as the entries of "orders", used by the order archive
+    static void writeOrder(Order order, OutputStream out, ObjectMapper mapper) throws IOException {
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            new JsonSnapshotWriter(gen).writeOrder(order);
+        }
+    }
+
+    static List<Shop> ownedShops(Collection<User> users) {
+        List<Shop> shops = new ArrayList<>();
+        for (User user : users) {
+            if (user instanceof Customer customer && customer.getOwnedShop() != null) {
+                shops.add(customer.getOwnedShop());
+            }
+        }
+        return shops;
+    }
+
+    private void begin() throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("version", VERSION);
+    }
+
+    private void writeUsers(Collection<User> users) throws IOException {
+        gen.writeArrayFieldStart("users");
+        for (User user : users) {
+            writeUser(user);
+        }
+        gen.writeEndArray();
+    }
+
+    // the shops followed by the stock of each of them
+    private void writeShops(List<Shop> shops) throws IOException {
+        gen.writeArrayFieldStart("shops");
+        for (Shop shop : shops) {
+            gen.writeStartObject();
+            gen.writeNumberField("id", shop.getId());
+            gen.writeStringField("name", shop.getName());
+            gen.writeNumberField("revenue", shop.getRevenue());
+            gen.writeObjectField("address", shop.getAddress());
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+
+        gen.writeArrayFieldStart("stocks");
+        for (Shop shop : shops) {
+            shop.forEachStock((id, name, price, quantity) -> {
+                gen.writeStartObject();
+                gen.writeNumberField("id", id);
+                gen.writeNumberField("shop", shop.getId());
+                gen.writeStringField("name", name);
+                gen.writeNumberField("price", price);
+                gen.writeNumberField("quantity", quantity);
+                gen.writeEndObject();
+            });
+        }
+        gen.writeEndArray();
+    }
+
+    private void writeOrders(Iterable<Order> orders) throws IOException {
+        gen.writeArrayFieldStart("orders");
+        for (Order order : orders) {
+            writeOrder(order);
+        }
+        gen.writeEndArray();
+    }
+
+    private void writeUser(User user) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("role", user.getRole().name());
+        gen.writeNumberField("id", user.getId());
+        gen.writeStringField("username", user.getUsername());
+        gen.writeStringField("password", user.getPassword());
+        gen.writeStringField("name", user.getName());
+        gen.writeNumberField("balance", user.getBalance());
+        gen.writeStringField("phone", user.getPhone());
+        gen.writeObjectField("address", user.getAddress());
+        if (user instanceof Customer customer) {
+            gen.writeNumberField("ownedShop", customer.getOwnedShop() == null ? 0 : customer.getOwnedShop().getId());
+        }
+        gen.writeEndObject();
+    }
+
+    private void writeOrder(Order order) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("id", order.getId());
+        if (order.getOrderedDate() != null) gen.writeNumberField("orderedDate", order.getOrderedDate().getTime());
+        gen.writeNumberField("customer", order.getCustomer().getId());
+        gen.writeNumberField("shop", order.getShop().getId());
+        gen.writeStringField("orderState", order.getOrderState().name());
+        gen.writeNumberField("shipper", order.getShipper() == null ? 0 : order.getShipper().getId());
+        gen.writeObjectField("location", order.getLocation());
+        gen.writeNumberField("totalPrice", order.getTotalPrice());
+        gen.writeArrayFieldStart("items");
+        for (OrderItem item : order.getItems()) {
+            gen.writeStartObject();
+            gen.writeStringField("name", item.item().getName());
+            gen.writeNumberField("quantity", item.quantity());
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+}
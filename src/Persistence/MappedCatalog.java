@@ -0,0 +1,227 @@
+package Persistence;
+
+import Item.Item;
+import Item.ItemStock;
+import Shop.Shop;
+import Shop.StockSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Read-optimized copy of every shop's stock, memory-mapped so that nothing is decoded before it is asked for.
+// Layout (big endian):
+//   header      int MAGIC, int VERSION, int snapshot CRC32, long snapshot length, int shop count, int record count,
+//               int highest stock id
+//   shops       per shop, by ascending id: int shop id, int first record, int record count
+//   records     RECORD_SIZE bytes each, grouped by shop in stock list order:
+//               int stock id, int shop id, double price, int quantity, int name offset, int name length, int unused
+//   id index    per record, by ascending stock id: int stock id, int record number
+//   names       the UTF-8 string pool the records point into
+// It is derived from a snapshot and only trusted for the snapshot whose CRC32 and length it carries, the stores
+// fall back to the stock written in the snapshot itself when they do not match.
+public final class MappedCatalog implements StockSource {
+    static final String FILE_NAME = "catalog.bin";
+
+    private static final int MAGIC = 0x43544C47; // "CTLG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SHOP_ENTRY_SIZE = 12;
+    private static final int RECORD_SIZE = 32;
+    private static final int INDEX_ENTRY_SIZE = 8;
+
+    private final MappedByteBuffer buffer;
+    private final int snapshotCrc;
+    private final long snapshotLength;
+    private final int shopCount;
+    private final int recordCount;
+    private final int recordsStart;
+    private final int indexStart;
+    private final int namesStart;
+
+    private MappedCatalog(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) throw new IOException("Not a catalog file");
+        if (buffer.getInt(4) != VERSION) throw new IOException("Unsupported catalog version " + buffer.getInt(4));
+        this.snapshotCrc = buffer.getInt(8);
+        this.snapshotLength = buffer.getLong(12);
+        this.shopCount = buffer.getInt(20);
+        this.recordCount = buffer.getInt(24);
+        this.recordsStart = HEADER_SIZE + shopCount * SHOP_ENTRY_SIZE;
+        this.indexStart = recordsStart + recordCount * RECORD_SIZE;
+        this.namesStart = indexStart + recordCount * INDEX_ENTRY_SIZE;
+        if (namesStart > buffer.capacity()) throw new IOException("Catalog file is truncated");
+        ItemStock.reserveIdsUpTo(buffer.getInt(28));
+    }
+
+    // Maps the catalog, null if there is none
+    static MappedCatalog open(Path path) throws IOException {
+        if (!Files.exists(path)) return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new MappedCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // Whether the catalog was built from the snapshot content with this checksum and length
+    boolean matches(int crc, long length) {
+        return snapshotCrc == crc && snapshotLength == length;
+    }
+
+    // Builds the catalog of the shops for the snapshot with the given checksum and length.
+    // Stock still held by another catalog is copied from it without creating objects.
+    static byte[] encode(List<Shop> shops, int snapshotCrc, long snapshotLength) throws IOException {
+        List<Shop> sorted = new ArrayList<>(shops);
+        sorted.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(recordBytes);
+        int[] firstRecord = new int[sorted.size()];
+        int[] count = {0};
+        int maxId = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            Shop shop = sorted.get(i);
+            firstRecord[i] = count[0];
+            shop.forEachStock((id, name, price, quantity) -> {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                records.writeInt(id);
+                records.writeInt(shop.getId());
+                records.writeDouble(price);
+                records.writeInt(quantity);
+                records.writeInt(names.size());
+                records.writeInt(bytes.length);
+                records.writeInt(0);
+                names.write(bytes);
+                count[0]++;
+            });
+        }
+        int total = count[0];
+
+        // stock ids paired with their record number, sorted for binary search
+        long[] index = new long[total];
+        ByteBuffer written = ByteBuffer.wrap(recordBytes.toByteArray());
+        for (int r = 0; r < total; r++) {
+            int id = written.getInt(r * RECORD_SIZE);
+            maxId = Math.max(maxId, id);
+            index[r] = ((long) id << 32) | r;
+        }
+        Arrays.sort(index);
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream(HEADER_SIZE + written.capacity() + names.size());
+        DataOutputStream out = new DataOutputStream(content);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(snapshotCrc);
+        out.writeLong(snapshotLength);
+        out.writeInt(sorted.size());
+        out.writeInt(total);
+        out.writeInt(maxId);
+        for (int i = 0; i < sorted.size(); i++) {
+            out.writeInt(sorted.get(i).getId());
+            out.writeInt(firstRecord[i]);
+            out.writeInt((i + 1 < sorted.size() ? firstRecord[i + 1] : total) - firstRecord[i]);
+        }
+        out.write(written.array());
+        for (long entry : index) {
+            out.writeInt((int) (entry >>> 32));
+            out.writeInt((int) entry);
+        }
+        names.writeTo(out);
+        out.flush();
+        return content.toByteArray();
+    }
+
+    @Override
+    public List<ItemStock> loadStock(Shop shop) {
+        int entry = findShop(shop.getId());
+        if (entry < 0) return new ArrayList<>();
+        int first = buffer.getInt(entry + 4);
+        int count = buffer.getInt(entry + 8);
+        List<ItemStock> stock = new ArrayList<>(count);
+        for (int r = first; r < first + count; r++) {
+            stock.add(toItemStock(r, shop));
+        }
+        return stock;
+    }
+
+    @Override
+    public ItemStock loadStock(Shop shop, int itemStockId) {
+        int record = findRecord(itemStockId);
+        if (record < 0 || buffer.getInt(recordsStart + record * RECORD_SIZE + 4) != shop.getId()) return null;
+        return toItemStock(record, shop);
+    }
+
+    @Override
+    public int stockCount(Shop shop) {
+        int entry = findShop(shop.getId());
+        return entry < 0 ? 0 : buffer.getInt(entry + 8);
+    }
+
+    @Override
+    public int shopOf(int itemStockId) {
+        int record = findRecord(itemStockId);
+        return record < 0 ? 0 : buffer.getInt(recordsStart + record * RECORD_SIZE + 4);
+    }
+
+    @Override
+    public void forEachStock(Shop shop, StockVisitor visitor) throws IOException {
+        int entry = findShop(shop.getId());
+        if (entry < 0) return;
+        int first = buffer.getInt(entry + 4);
+        int count = buffer.getInt(entry + 8);
+        for (int r = first; r < first + count; r++) {
+            int at = recordsStart + r * RECORD_SIZE;
+            visitor.visit(buffer.getInt(at), name(at), buffer.getDouble(at + 8), buffer.getInt(at + 16));
+        }
+    }
+
+    private ItemStock toItemStock(int record, Shop shop) {
+        int at = recordsStart + record * RECORD_SIZE;
+        return new ItemStock(buffer.getInt(at), new Item(name(at)), buffer.getDouble(at + 8), buffer.getInt(at + 16), shop);
+    }
+
+    private String name(int recordAt) {
+        byte[] bytes = new byte[buffer.getInt(recordAt + 24)];
+        buffer.get(namesStart + buffer.getInt(recordAt + 20), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Position of the shop's directory entry, -1 if the shop has no stock here
+    private int findShop(int shopId) {
+        int low = 0;
+        int high = shopCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = buffer.getInt(HEADER_SIZE + mid * SHOP_ENTRY_SIZE);
+            if (id < shopId) low = mid + 1;
+            else if (id > shopId) high = mid - 1;
+            else return HEADER_SIZE + mid * SHOP_ENTRY_SIZE;
+        }
+        return -1;
+    }
+
+    // Record number of the stock, -1 if it is not in the catalog
+    private int findRecord(int itemStockId) {
+        int low = 0;
+        int high = recordCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = buffer.getInt(indexStart + mid * INDEX_ENTRY_SIZE);
+            if (id < itemStockId) low = mid + 1;
+            else if (id > itemStockId) high = mid - 1;
+            else return buffer.getInt(indexStart + mid * INDEX_ENTRY_SIZE + 4);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,284 @@
+package Persistence;
+
+import Order.Order;
+import Shop.Shop;
+import User.Customer;
+import User.User;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+// Cold storage for orders confirmed by their customer. They never change again, so they leave the live lists
+// and the snapshot and are appended to segment files instead:
+//   archive/orders-000001.seg, archive/orders-000002.seg, ...
+// Each line is "<order id> <customer id> <shop id> <order json>". Only the three ids and the order date are kept in
+// memory, with the position of the line, and an order is read back from disk when somebody looks at a history.
+// A segment is closed once it passes SEGMENT_SIZE and is never written again.
+// Sessions share one archive; each call holds its monitor and never calls out to code that takes other locks.
+public final class OrderArchive {
+    private static final long SEGMENT_SIZE = 4L * 1024 * 1024;
+    private static final String PREFIX = "orders-";
+    private static final String SUFFIX = ".seg";
+
+    private record Entry(int segment, long offset, int length, int customerId, int shopId, long orderedAt) {
+    }
+
+    public interface OrderVisitor {
+        // orderedAt is the order date in epoch milliseconds, NO_DATE for an order saved without one
+        void visit(int orderId, int customerId, int shopId, long orderedAt);
+    }
+
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    private final Path dir;
+    private final ObjectMapper mapper;
+    private final HashMap<Integer, Entry> index = new HashMap<>();
+    private final HashMap<Integer, List<Integer>> byCustomer = new HashMap<>();
+    private final HashMap<Integer, List<Integer>> byShop = new HashMap<>();
+    private int maxOrderId;
+    private int segment;
+    private FileChannel channel;
+    private long segmentSize;
+
+    public OrderArchive(Path dir, ObjectMapper mapper) throws IOException {
+        this.dir = dir;
+        this.mapper = mapper;
+        Files.createDirectories(dir);
+        TreeMap<Integer, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                segments.put(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), entry);
+            }
+        }
+        for (var entry : segments.entrySet()) {
+            segment = entry.getKey();
+            segmentSize = scan(entry.getKey(), entry.getValue());
+        }
+        if (segments.isEmpty()) segment = 1;
+    }
+
+    public synchronized boolean contains(int orderId) {
+        return index.containsKey(orderId);
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    // Highest archived order id, 0 when the archive is empty
+    public synchronized int maxOrderId() {
+        return maxOrderId;
+    }
+
+    // Appends the order and syncs the segment. Returns false if the order was archived before.
+    public synchronized boolean append(Order order) throws IOException {
+        if (index.containsKey(order.getId())) return false;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        line.write(String.format("%d %d %d ", order.getId(), order.getCustomer().getId(), order.getShop().getId())
+                .getBytes(StandardCharsets.UTF_8));
+        JsonSnapshotWriter.writeOrder(order, line, mapper);
+        line.write('\n');
+        byte[] bytes = line.toByteArray();
+
+        if (segmentSize > 0 && segmentSize + bytes.length > SEGMENT_SIZE) {
+            closeSegment();
+            segment++;
+            segmentSize = 0;
+        }
+        FileChannel out = channel();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) out.write(buffer);
+        out.force(false);
+        add(order.getId(), new Entry(segment, segmentSize, bytes.length, order.getCustomer().getId(), order.getShop().getId(),
+                order.getOrderedDate() == null ? NO_DATE : order.getOrderedDate().getTime()));
+        segmentSize += bytes.length;
+        return true;
+    }
+
+    // Archived orders of the customer, oldest first. Shops are resolved by id, orders of unknown shops are skipped.
+    public synchronized List<Order> customerHistory(Customer customer, IntFunction<Shop> shops) throws IOException {
+        return customerHistory(customer, shops, 0, Integer.MAX_VALUE);
+    }
+
+    // At most limit orders of the customer's history, starting at position from. A history only ever grows at the
+    // end, so positions stay put and can be used to page through it.
+    public synchronized List<Order> customerHistory(Customer customer, IntFunction<Shop> shops, int from, int limit) throws IOException {
+        return load(range(byCustomer.get(customer.getId()), from, limit),
+                id -> id == customer.getId() ? customer : null, shops);
+    }
+
+    public synchronized int customerHistorySize(Customer customer) {
+        return byCustomer.getOrDefault(customer.getId(), Collections.emptyList()).size();
+    }
+
+    // Archived orders of the shop, oldest first. Customers are resolved by id.
+    public synchronized List<Order> shopHistory(Shop shop, IntFunction<User> users) throws IOException {
+        return shopHistory(shop, users, 0, Integer.MAX_VALUE);
+    }
+
+    public synchronized List<Order> shopHistory(Shop shop, IntFunction<User> users, int from, int limit) throws IOException {
+        return load(range(byShop.get(shop.getId()), from, limit), users, id -> id == shop.getId() ? shop : null);
+    }
+
+    public synchronized int shopHistorySize(Shop shop) {
+        return byShop.getOrDefault(shop.getId(), Collections.emptyList()).size();
+    }
+
+    // Walks what is kept in memory of every archived order, without reading the segments
+    public synchronized void forEachOrder(OrderVisitor visitor) {
+        for (var entry : index.entrySet()) {
+            Entry value = entry.getValue();
+            visitor.visit(entry.getKey(), value.customerId(), value.shopId(), value.orderedAt());
+        }
+    }
+
+    // The archived orders with these ids, in the same order; unknown ids and orders whose customer or shop cannot be
+    // resolved are skipped
+    public synchronized List<Order> orders(List<Integer> orderIds, IntFunction<User> users, IntFunction<Shop> shops) throws IOException {
+        List<Integer> known = new ArrayList<>(orderIds.size());
+        for (int id : orderIds) {
+            if (index.containsKey(id)) known.add(id);
+        }
+        return load(known, users, shops);
+    }
+
+    public synchronized void close() {
+        try {
+            closeSegment();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private List<Order> load(List<Integer> ids, IntFunction<User> users, IntFunction<Shop> shops) throws IOException {
+        List<Order> result = new ArrayList<>();
+        FileChannel in = null;
+        int open = 0;
+        try {
+            for (int id : ids) {
+                Entry entry = index.get(id);
+                if (in == null || open != entry.segment()) {
+                    if (in != null) in.close();
+                    in = FileChannel.open(segmentPath(entry.segment()), StandardOpenOption.READ);
+                    open = entry.segment();
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(entry.length());
+                while (buffer.hasRemaining()) {
+                    if (in.read(buffer, entry.offset() + buffer.position()) < 0) {
+                        throw new IOException("Order archive segment " + entry.segment() + " is truncated");
+                    }
+                }
+                String line = new String(buffer.array(), StandardCharsets.UTF_8);
+                SnapshotLinker.OrderRecord record =
+                        JsonSnapshotReader.readOrder(mapper.readTree(line.substring(jsonStart(line))), mapper);
+
+                Customer customer = users.apply(record.customerId()) instanceof Customer c ? c : null;
+                Shop shop = shops.apply(record.shopId());
+                if (customer == null || shop == null) continue;
+                result.add(new Order(record.id(), record.orderedDate(), customer, shop, record.state(), null,
+                        record.location(), record.totalPrice(), record.items()));
+            }
+        } finally {
+            if (in != null) in.close();
+        }
+        return result;
+    }
+
+    // Rebuilds the index from a segment. A torn last line, left by a crash in the middle of an append, is cut off.
+    private long scan(int number, Path path) throws IOException {
+        long offset = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 64 * 1024)) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1) {
+                line.write(b);
+                if (b != '\n') continue;
+                String[] ids = line.toString(StandardCharsets.UTF_8).split(" ", 4);
+                int id = Integer.parseInt(ids[0]);
+                add(id, new Entry(number, offset, line.size(), Integer.parseInt(ids[1]), Integer.parseInt(ids[2]),
+                        orderedAt(ids[3])));
+                offset += line.size();
+                line.reset();
+            }
+        }
+        if (offset < Files.size(path)) {
+            System.out.println("System message: Ignoring damaged order archive record.");
+            try (FileChannel out = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                out.truncate(offset);
+            }
+        }
+        return offset;
+    }
+
+    private void add(int id, Entry entry) {
+        index.put(id, entry);
+        byCustomer.computeIfAbsent(entry.customerId(), k -> new ArrayList<>()).add(id);
+        byShop.computeIfAbsent(entry.shopId(), k -> new ArrayList<>()).add(id);
+        maxOrderId = Math.max(maxOrderId, id);
+    }
+
+    // Reads the date off the front of the order json, where the writer puts it, without parsing the rest
+    private long orderedAt(String json) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return NO_DATE;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (field.equals("orderedDate")) return value == JsonToken.VALUE_NUMBER_INT ? parser.getLongValue() : NO_DATE;
+                parser.skipChildren();
+            }
+        }
+        return NO_DATE;
+    }
+
+    private static List<Integer> range(List<Integer> ids, int from, int limit) {
+        if (ids == null || from >= ids.size()) return Collections.emptyList();
+        return ids.subList(Math.max(from, 0), (int) Math.min(ids.size(), (long) Math.max(from, 0) + limit));
+    }
+
+    private static int jsonStart(String line) {
+        int spaces = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == ' ' && ++spaces == 3) return i + 1;
+        }
+        return 0;
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(segmentPath(segment),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    private void closeSegment() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private Path segmentPath(int number) {
+        return dir.resolve(String.format("%s%06d%s", PREFIX, number, SUFFIX));
+    }
+}
@@ -0,0 +1,44 @@
+package Persistence;
+
+// Persistence settings, read from JVM system properties so they can be set on the command line:
+//   -Dshopdee.snapshot=json|binary|sharded   snapshot format (default json), sharded keeps one file per entity type
+//   -Dshopdee.snapshot.compress=true         deflate snapshot files, in checksummed blocks (read back either way)
+//   -Dshopdee.catalog=true                   keep the stock in a memory-mapped catalog.bin, loaded item by item
+//   -Dshopdee.journal.maxBatchDelay=<ms>     how long a commit waits for concurrent ones to share its fsync (default 2)
+//   -Dshopdee.journal.metrics=true           print batch size and commit latency figures on exit
+public final class PersistenceConfig {
+    private PersistenceConfig() {
+    }
+
+    public static SnapshotFormat snapshotFormat() {
+        String value = System.getProperty("shopdee.snapshot", "json");
+        try {
+            return SnapshotFormat.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("System message: Unknown snapshot format '" + value + "', using json.");
+            return SnapshotFormat.JSON;
+        }
+    }
+
+    public static boolean compressSnapshots() {
+        return Boolean.getBoolean("shopdee.snapshot.compress");
+    }
+
+    public static boolean mappedCatalog() {
+        return Boolean.getBoolean("shopdee.catalog");
+    }
+
+    public static long maxBatchDelayMillis() {
+        String value = System.getProperty("shopdee.journal.maxBatchDelay", "2");
+        try {
+            return Math.max(0L, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            System.out.println("System message: Invalid journal batch delay '" + value + "', using 2 ms.");
+            return 2L;
+        }
+    }
+
+    public static boolean printCommitMetrics() {
+        return Boolean.getBoolean("shopdee.journal.metrics");
+    }
+}
@@ -0,0 +1,68 @@
+package Persistence;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Reading side of SectionOutputStream: returns the bytes of the current section and reports end of stream
+// when its end-of-section marker is reached.
+final class SectionInputStream extends InputStream {
+    private final DataInputStream in;
+    private int remaining; // bytes left in the current block
+    private boolean sectionEnded = true;
+
+    SectionInputStream(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    // Reads the tag of the next section, -1 when the file has no more sections
+    int nextSection() throws IOException {
+        if (!sectionEnded) skipSection();
+        int tag = in.read();
+        if (tag < 0) return -1;
+        sectionEnded = false;
+        remaining = 0;
+        return tag;
+    }
+
+    // Moves past the rest of the current section without decoding it
+    void skipSection() throws IOException {
+        while (nextBlock()) {
+            in.skipNBytes(remaining);
+            remaining = 0;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining == 0 && !nextBlock()) return -1;
+        int b = in.read();
+        if (b < 0) throw new EOFException("Snapshot is truncated");
+        remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        if (remaining == 0 && !nextBlock()) return -1;
+        int n = in.read(bytes, offset, Math.min(length, remaining));
+        if (n < 0) throw new EOFException("Snapshot is truncated");
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (sectionEnded) return false;
+        if (remaining > 0) return true;
+        remaining = in.readInt();
+        if (remaining == 0) sectionEnded = true;
+        return !sectionEnded;
+    }
+}
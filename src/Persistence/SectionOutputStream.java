@@ -0,0 +1,72 @@
+package Persistence;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Splits what is written into length-prefixed blocks: [int length][bytes], a zero length block ends a section.
+// Only one block is buffered at a time, so sections of any size are written without knowing their length upfront,
+// and a reader can skip a whole section by hopping from block header to block header.
+final class SectionOutputStream extends OutputStream {
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private int count;
+
+    SectionOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    // Starts a section, sections are told apart by a one byte tag
+    void beginSection(int tag) throws IOException {
+        out.write(tag);
+    }
+
+    // Writes the pending block followed by the end-of-section marker
+    void endSection() throws IOException {
+        writeBlock();
+        writeInt(0);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == block.length) writeBlock();
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (count == block.length) writeBlock();
+            int n = Math.min(length, block.length - count);
+            System.arraycopy(bytes, offset, block, count, n);
+            count += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0) return;
+        writeInt(count);
+        out.write(block, 0, count);
+        count = 0;
+    }
+
+    private void writeInt(int v) throws IOException {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+}
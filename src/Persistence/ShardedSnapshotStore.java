@@ -0,0 +1,250 @@
+package Persistence;
+
+import MainSystem.SystemDataHolder;
+import Order.Order;
+import Order.OrderState;
+import Shop.Shop;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// A snapshot split into one file per entity type, so the files are encoded and parsed on separate threads:
+//   data/CURRENT               number of the generation to load
+//   data/<generation>/users.json           users and the profit
+//   data/<generation>/shops.json           shops and their stock
+//   data/<generation>/orders-active.json   orders not confirmed by the customer yet
+//   data/<generation>/orders-history.json  confirmed orders
+//   data/<generation>/catalog.bin          MappedCatalog of the stock in shops.json, with -Dshopdee.catalog=true
+// A save streams a whole new generation into a staging directory, renames it to its number and then replaces
+// CURRENT, so a crash in the middle leaves the previous generation in use. Older generations are removed once
+// CURRENT points past them, and staging directories left by a crash or by a discarded save are removed on load.
+public final class ShardedSnapshotStore implements SnapshotStore {
+    private static final String CURRENT = "CURRENT";
+    private static final String USERS = "users.json";
+    private static final String SHOPS = "shops.json";
+    private static final String ACTIVE_ORDERS = "orders-active.json";
+    private static final String ORDER_HISTORY = "orders-history.json";
+    private static final String STAGING = "staging-"; // prefix of a generation being written
+
+    private static final ExecutorService pool = Executors.newFixedThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-shard");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private interface ShardWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private final Path dir;
+    private final ObjectMapper mapper;
+    private final boolean compress;
+    private final boolean catalog;
+
+    public ShardedSnapshotStore(Path dir, ObjectMapper mapper, boolean compress, boolean catalog) {
+        this.dir = dir;
+        this.mapper = mapper;
+        this.compress = compress;
+        this.catalog = catalog;
+    }
+
+    @Override
+    public SystemDataHolder load() throws IOException {
+        deleteStaging();
+        Path generation = dir.resolve(Long.toString(currentGeneration()));
+        List<Callable<SnapshotLinker>> tasks = new ArrayList<>();
+        for (String shard : List.of(USERS, SHOPS, ACTIVE_ORDERS, ORDER_HISTORY)) {
+            Path file = generation.resolve(shard);
+            if (shard.equals(SHOPS) && catalog) {
+                tasks.add(() -> readShops(file, MappedCatalog.open(generation.resolve(MappedCatalog.FILE_NAME))));
+                continue;
+            }
+            tasks.add(() -> {
+                SnapshotLinker linker = new SnapshotLinker(null);
+                try (InputStream in = SnapshotFiles.open(file)) {
+                    JsonSnapshotReader.readInto(in, mapper, linker);
+                }
+                return linker;
+            });
+        }
+        // each shard only refers to the others by id, so they are linked once all of them are read
+        SnapshotLinker linker = new SnapshotLinker(null);
+        for (SnapshotLinker shard : invokeAll(tasks)) {
+            linker.absorb(shard);
+        }
+        return linker.link();
+    }
+
+    // The shops shard leaves its stock in the catalog if the catalog was built from this shard
+    private SnapshotLinker readShops(Path file, MappedCatalog stock) throws IOException {
+        if (stock != null) {
+            SnapshotLinker linker = new SnapshotLinker(stock);
+            try (SnapshotFiles.FingerprintInputStream in = new SnapshotFiles.FingerprintInputStream(SnapshotFiles.open(file))) {
+                JsonSnapshotReader.readInto(in, mapper, linker);
+                if (in.matches(stock)) return linker;
+            }
+            System.out.println("System message: Catalog is out of date, loading the stock from " + file + ".");
+        }
+        SnapshotLinker linker = new SnapshotLinker(null);
+        try (InputStream in = SnapshotFiles.open(file)) {
+            JsonSnapshotReader.readInto(in, mapper, linker);
+        }
+        return linker;
+    }
+
+    @Override
+    public Snapshot encode(SystemDataHolder data) throws IOException {
+        List<Order> active = new ArrayList<>();
+        List<Order> history = new ArrayList<>();
+        for (Order order : data.orders()) {
+            (order.getOrderState() == OrderState.CUSTOMER_CONFIRMED ? history : active).add(order);
+        }
+
+        // the catalog is built from the very shops written to the shops shard, so its fingerprint describes them
+        List<Shop> shops = JsonSnapshotWriter.ownedShops(data.users().values());
+
+        Map<String, ShardWriter> shards = new LinkedHashMap<>();
+        shards.put(USERS, out -> JsonSnapshotWriter.writeUsers(data.users().values(), data.profit(), out, mapper));
+        shards.put(SHOPS, out -> JsonSnapshotWriter.writeShops(shops, out, mapper));
+        shards.put(ACTIVE_ORDERS, out -> JsonSnapshotWriter.writeOrders(active, out, mapper));
+        shards.put(ORDER_HISTORY, out -> JsonSnapshotWriter.writeOrders(history, out, mapper));
+
+        // every shard is streamed straight into its file, in a staging directory that write() turns into the next
+        // generation. The data keeps changing while the shard threads read it, so the shards are fuzzy and may not
+        // agree with each other; that is safe because the journal cut was placed before encoding began, and replaying
+        // the records after the cut, which hold absolute values, brings every shard to the same state on load
+        Files.createDirectories(dir);
+        Path staging = Files.createTempDirectory(dir, STAGING);
+        try {
+            List<Callable<SnapshotFiles.FileOutput>> tasks = new ArrayList<>();
+            for (Map.Entry<String, ShardWriter> shard : shards.entrySet()) {
+                tasks.add(() -> {
+                    Path file = staging.resolve(shard.getKey());
+                    SnapshotFiles.FileOutput out = new SnapshotFiles.FileOutput(file, compress);
+                    try {
+                        shard.getValue().write(out);
+                        out.commit();
+                    } catch (IOException | RuntimeException e) {
+                        out.discard();
+                        throw e;
+                    }
+                    return out;
+                });
+            }
+            List<SnapshotFiles.FileOutput> written = invokeAll(tasks);
+            if (catalog) {
+                // the catalog is mapped as it is, it is never compressed
+                SnapshotFiles.FileOutput shopsFile = written.get(new ArrayList<>(shards.keySet()).indexOf(SHOPS));
+                SnapshotFiles.write(staging.resolve(MappedCatalog.FILE_NAME),
+                        MappedCatalog.encode(shops, shopsFile.crc(), shopsFile.length()), false);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteTree(staging);
+            throw e;
+        }
+        return new Snapshot() {
+            @Override
+            public void write() throws IOException {
+                publish(staging);
+            }
+
+            @Override
+            public void discard() {
+                try {
+                    deleteTree(staging);
+                } catch (IOException | UncheckedIOException e) {
+                    // removed by the next load
+                }
+            }
+        };
+    }
+
+    private void publish(Path staging) throws IOException {
+        long generation = Files.exists(dir.resolve(CURRENT)) ? currentGeneration() + 1 : 1;
+        Path target = dir.resolve(Long.toString(generation));
+        if (Files.exists(target)) deleteTree(target); // left by a save that stopped before updating CURRENT
+        Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+
+        Path temp = dir.resolve(CURRENT + ".tmp");
+        Files.write(temp, Long.toString(generation).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, dir.resolve(CURRENT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        deleteGenerationsBefore(generation);
+    }
+
+    private void deleteStaging() throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir, STAGING + "*")) {
+            for (Path entry : entries) {
+                deleteTree(entry);
+            }
+        }
+        Files.deleteIfExists(dir.resolve(CURRENT + ".tmp"));
+    }
+
+    private long currentGeneration() throws IOException {
+        String value = Files.readString(dir.resolve(CURRENT), StandardCharsets.UTF_8).trim();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed snapshot pointer " + dir.resolve(CURRENT) + ": " + value);
+        }
+    }
+
+    private void deleteGenerationsBefore(long generation) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            for (Path entry : entries) {
+                long number;
+                try {
+                    number = Long.parseLong(entry.getFileName().toString());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (number >= generation) continue;
+                deleteTree(entry);
+            }
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (var files = Files.walk(root)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing the snapshot");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException(e.getCause());
+        }
+        return results;
+    }
+}
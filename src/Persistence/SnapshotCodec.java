@@ -0,0 +1,19 @@
+package Persistence;
+
+import MainSystem.SystemDataHolder;
+import Shop.StockSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Reads and writes a full snapshot of the system state.
+// Implementations must rebuild the order back-references (User.addOrder, Shop.addOrder) when reading.
+public interface SnapshotCodec {
+    // Decodes the snapshot from in, which the caller closes.
+    // With a catalog the stock written in the snapshot is skipped and every shop reads its stock from the catalog.
+    SystemDataHolder read(InputStream in, StockSource catalog) throws IOException;
+
+    // Encodes the snapshot into out, which is closed afterwards
+    void write(SystemDataHolder data, OutputStream out) throws IOException;
+}
@@ -0,0 +1,194 @@
+package Persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+// Reading and writing of snapshot files, shared by the single-file and the sharded stores.
+// A file is written next to its final name and renamed over it once complete and synced, so a crash during a save
+// leaves the previous snapshot in place. Compressed files are recognized by their magic number, which lets
+// -Dshopdee.snapshot.compress be switched either way without migrating anything.
+final class SnapshotFiles {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SnapshotFiles() {
+    }
+
+    // Opens a snapshot file, decompressing it if needed
+    static InputStream open(Path path) throws IOException {
+        InputStream in = new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ)), BUFFER_SIZE);
+        in.mark(4);
+        int magic;
+        try {
+            magic = new DataInputStream(in).readInt();
+        } catch (IOException e) {
+            magic = 0; // shorter than a magic number, let the codec report it
+        }
+        if (magic == CompressedOutputStream.MAGIC) return new CompressedInputStream(in);
+        in.reset();
+        return in;
+    }
+
+    static int crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return (int) crc.getValue();
+    }
+
+    // Keeps the CRC32 and length of the (decompressed) bytes read through it, to check a catalog against its snapshot
+    static final class FingerprintInputStream extends CheckedInputStream {
+        private long length;
+
+        FingerprintInputStream(InputStream in) {
+            super(in, new CRC32());
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) length++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int count) throws IOException {
+            int n = super.read(bytes, offset, count);
+            if (n > 0) length += n;
+            return n;
+        }
+
+        // Reads whatever the decoder left and tells whether the whole content had this checksum and length
+        boolean matches(MappedCatalog catalog) throws IOException {
+            byte[] rest = new byte[8192];
+            while (read(rest, 0, rest.length) >= 0) {
+                // only feeding the checksum
+            }
+            return catalog.matches((int) getChecksum().getValue(), length);
+        }
+    }
+
+    // A snapshot file streamed to disk as it is encoded: the content goes, compressed if asked, into a temporary file
+    // next to the final one. Closing the stream completes and syncs the temporary file, commit() renames it over the
+    // final name and discard() drops it. The CRC32 and length of the content written are kept for the catalog.
+    static final class FileOutput extends OutputStream {
+        private final Path path;
+        private final Path temp;
+        private final FileChannel channel;
+        private final OutputStream file;
+        private final OutputStream out; // compressing into file, or file itself
+        private final CRC32 crc = new CRC32();
+        private long length;
+        private boolean closed;
+
+        FileOutput(Path path, boolean compress) throws IOException {
+            this.path = path;
+            // a name of its own, an older snapshot may still be waiting for its rename
+            this.temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName() + ".", ".tmp");
+            this.channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.file = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            this.out = compress ? new CompressedOutputStream(file) : file;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+            length++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            out.write(bytes, offset, count);
+            crc.update(bytes, offset, count);
+            length += count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                if (out instanceof CompressedOutputStream compressed) compressed.finish();
+                file.flush();
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+
+        int crc() {
+            return (int) crc.getValue();
+        }
+
+        long length() {
+            return length;
+        }
+
+        void commit() throws IOException {
+            close();
+            move(temp, path);
+        }
+
+        void discard() {
+            try {
+                channel.close();
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                // only a leftover temporary file
+            }
+        }
+    }
+
+    // Deletes the temporary files of saves of the path that never completed, only to be called while none is running
+    static void deleteLeftovers(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (!Files.isDirectory(parent)) return;
+        String name = path.getFileName().toString();
+        try (DirectoryStream<Path> temps = Files.newDirectoryStream(parent, name + "*.tmp")) {
+            for (Path temp : temps) {
+                String tempName = temp.getFileName().toString();
+                if (tempName.equals(name + ".tmp") || tempName.startsWith(name + ".")) Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    static void write(Path path, byte[] content, boolean compress) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            if (compress) {
+                CompressedOutputStream compressed = new CompressedOutputStream(out);
+                compressed.write(content);
+                compressed.finish();
+            } else {
+                out.write(content);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        move(temp, path);
+    }
+
+    private static void move(Path temp, Path path) throws IOException {
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
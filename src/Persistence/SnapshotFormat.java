@@ -0,0 +1,45 @@
+package Persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+public enum SnapshotFormat {
+    JSON("data.json"),
+    BINARY("data.bin"),
+    SHARDED("data"); // a directory, see ShardedSnapshotStore
+
+    private final Path path;
+
+    SnapshotFormat(String name) {
+        this.path = Paths.get(name);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public SnapshotStore store(ObjectMapper mapper) {
+        boolean compress = PersistenceConfig.compressSnapshots();
+        boolean catalog = PersistenceConfig.mappedCatalog();
+        Path catalogPath = catalog ? path.resolveSibling(MappedCatalog.FILE_NAME) : null;
+        return switch (this) {
+            case JSON -> new FileSnapshotStore(path, new JsonSnapshotCodec(mapper), compress, catalogPath);
+            case BINARY -> new FileSnapshotStore(path, new BinarySnapshotCodec(), compress, catalogPath);
+            case SHARDED -> new ShardedSnapshotStore(path, mapper, compress, catalog);
+        };
+    }
+
+    // The snapshot to load: the preferred format if its file or directory exists, otherwise any other existing one
+    // so that switching formats migrates the data instead of starting empty
+    public static Optional<SnapshotFormat> findExisting(SnapshotFormat preferred) {
+        if (Files.exists(preferred.path)) return Optional.of(preferred);
+        for (SnapshotFormat format : values()) {
+            if (Files.exists(format.path)) return Optional.of(format);
+        }
+        return Optional.empty();
+    }
+}
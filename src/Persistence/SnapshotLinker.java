@@ -0,0 +1,157 @@
+package Persistence;
+
+import Item.ItemStock;
+import MainSystem.SystemDataHolder;
+import Order.Order;
+import Order.OrderItem;
+import Order.OrderState;
+import Shop.Shop;
+import Shop.StockSource;
+import User.Customer;
+import User.Shipper;
+import User.User;
+import Utils.Address;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+
+// Collects the entities of a normalized snapshot, where users, shops, stocks and orders refer to each other
+// only by int id, and wires them together.
+// References are resolved as soon as their target is known, which is always the case when sections come in the
+// order they are written (users, shops, stocks, orders). Anything else is kept aside and resolved by link().
+final class SnapshotLinker {
+    // An order whose customer, shop and shipper are still ids
+    record OrderRecord(int id, Date orderedDate, int customerId, int shopId, OrderState state, int shipperId,
+                       Address location, double totalPrice, List<OrderItem> items) {
+    }
+
+    private record PendingStock(int shopId, ItemStock itemStock) {
+    }
+
+    private final Hashtable<String, User> users = new Hashtable<>();
+    private final HashMap<Integer, User> usersById = new HashMap<>();
+    private final HashMap<Integer, Shop> shops = new HashMap<>();
+    private final HashMap<Integer, Integer> ownedShopIds = new HashMap<>(); // customer id -> shop id
+    private final List<PendingStock> pendingStocks = new ArrayList<>();
+    private final List<OrderRecord> pendingOrders = new ArrayList<>();
+    private final List<Order> orders = new ArrayList<>();
+    private double profit;
+    private StockSource catalog;
+
+    // With a catalog, stock is not read from the snapshot and link() hands the catalog to every shop
+    SnapshotLinker(StockSource catalog) {
+        this.catalog = catalog;
+    }
+
+    boolean hasCatalog() {
+        return catalog != null;
+    }
+
+    void setProfit(double profit) {
+        this.profit = profit;
+    }
+
+    // ownedShopId is 0 when the customer has no shop or the shop object is already attached
+    void addUser(User user, int ownedShopId) {
+        users.put(user.getUsername(), user);
+        usersById.put(user.getId(), user);
+        if (user instanceof Customer customer && customer.getOwnedShop() != null) {
+            shops.put(customer.getOwnedShop().getId(), customer.getOwnedShop());
+        }
+        if (ownedShopId != 0) {
+            Shop shop = shops.get(ownedShopId);
+            if (shop != null) ((Customer) user).setOwnedShop(shop);
+            else ownedShopIds.put(user.getId(), ownedShopId);
+        }
+    }
+
+    void addShop(Shop shop) {
+        shops.put(shop.getId(), shop);
+    }
+
+    void addStock(int shopId, ItemStock itemStock) {
+        Shop shop = shops.get(shopId);
+        if (shop != null) attachStock(shop, itemStock);
+        else pendingStocks.add(new PendingStock(shopId, itemStock));
+    }
+
+    void addOrder(OrderRecord record) throws IOException {
+        // once one order waits, the following ones wait too so the list keeps the file order
+        if (pendingOrders.isEmpty() && usersById.containsKey(record.customerId()) && shops.containsKey(record.shopId())
+                && (record.shipperId() == 0 || usersById.containsKey(record.shipperId()))) {
+            orders.add(toOrder(record));
+        } else {
+            pendingOrders.add(record);
+        }
+    }
+
+    // Takes over everything another linker collected, used to merge the shards of a snapshot decoded in parallel
+    void absorb(SnapshotLinker other) {
+        users.putAll(other.users);
+        usersById.putAll(other.usersById);
+        shops.putAll(other.shops);
+        ownedShopIds.putAll(other.ownedShopIds);
+        pendingStocks.addAll(other.pendingStocks);
+        pendingOrders.addAll(other.pendingOrders);
+        orders.addAll(other.orders);
+        profit += other.profit;
+        if (other.catalog != null) catalog = other.catalog;
+    }
+
+    // Resolves whatever could not be resolved on arrival and returns the linked state.
+    // Waiting orders are linked in the order they were placed in, by their ordered date; ids do not follow it.
+    // Orders of the same millisecond, or without a date, keep the order they were read in.
+    SystemDataHolder link() throws IOException {
+        for (var entry : ownedShopIds.entrySet()) {
+            Shop shop = shops.get(entry.getValue());
+            if (shop == null) throw new IOException("User " + entry.getKey() + " owns unknown shop " + entry.getValue());
+            ((Customer) usersById.get(entry.getKey())).setOwnedShop(shop);
+        }
+        ownedShopIds.clear();
+        for (PendingStock pending : pendingStocks) {
+            Shop shop = shops.get(pending.shopId());
+            if (shop == null) {
+                throw new IOException("Item stock " + pending.itemStock().getId() + " refers to an unknown shop");
+            }
+            attachStock(shop, pending.itemStock());
+        }
+        pendingStocks.clear();
+        if (catalog != null) {
+            for (Shop shop : shops.values()) {
+                if (shop.stockCount() == 0) shop.setStockSource(catalog);
+            }
+        }
+        pendingOrders.sort(Comparator.comparing(OrderRecord::orderedDate,
+                Comparator.nullsFirst(Comparator.naturalOrder())));
+        for (OrderRecord record : pendingOrders) {
+            orders.add(toOrder(record));
+        }
+        pendingOrders.clear();
+        return new SystemDataHolder(users, profit, orders);
+    }
+
+    private static void attachStock(Shop shop, ItemStock itemStock) {
+        shop.attachStock(itemStock);
+    }
+
+    private Order toOrder(OrderRecord record) throws IOException {
+        User customer = usersById.get(record.customerId());
+        Shop shop = shops.get(record.shopId());
+        if (!(customer instanceof Customer) || shop == null) {
+            throw new IOException("Order " + record.id() + " refers to an unknown customer or shop");
+        }
+        Shipper shipper = usersById.get(record.shipperId()) instanceof Shipper s ? s : null;
+
+        Order order = new Order(record.id(), record.orderedDate(), (Customer) customer, shop, record.state(),
+                shipper, record.location(), record.totalPrice(), record.items());
+        customer.addOrder(order);
+        shop.addOrder(order);
+        if (shipper != null) shipper.addOrder(order);
+        return order;
+    }
+}
@@ -0,0 +1,22 @@
+package Persistence;
+
+import MainSystem.SystemDataHolder;
+
+import java.io.IOException;
+
+// Where full snapshots live: a single file or a set of files.
+// Saving is split in two so the state is captured on the caller's thread and the disk work is done by the
+// BackgroundWriter: encode() serializes the state, write() on the returned Snapshot stores it, or discard() removes
+// what encode() left on disk when a newer snapshot makes it unnecessary. Loading removes what a save cut short by
+// a crash left behind.
+public interface SnapshotStore {
+    SystemDataHolder load() throws IOException;
+
+    Snapshot encode(SystemDataHolder data) throws IOException;
+
+    interface Snapshot {
+        void write() throws IOException;
+
+        void discard();
+    }
+}
@@ -1,17 +1,32 @@
 package Shop;
 
+import Item.CatalogEvents;
 import Item.Item;
 import Item.ItemStock;
+import Item.StockRegistry;
 import Order.Order;
+import Order.OrderBook;
+import Order.OrderEvents;
 import Order.OrderState;
 import User.Customer;
 import Utils.Address;
+import Utils.IdAllocator;
+import Utils.Money;
+import Utils.Utils;
 import com.fasterxml.jackson.annotation.*;
 
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 
+// A shop is locked by its own monitor while its stock list changes; quantities and revenue use compare-and-set.
+// The stock list itself is read through an unmodifiable copy that is made again only after a change, so browsing
+// and lookups take no lock.
 @JsonIdentityInfo(
         generator = ObjectIdGenerators.PropertyGenerator.class,
         property = "id"
@@ -19,52 +34,80 @@ import java.util.List;
 public class Shop {
     private final int id;
     
-    private String name;
+    private volatile String name;
+
+    @JsonIgnore
+    private volatile String searchKey; // Utils.searchKey of the name
 
     @JsonManagedReference
-    private final List<ItemStock> stock;
+    private final List<ItemStock> stock; // guarded by this shop
+
+    @JsonIgnore
+    private volatile List<ItemStock> stockView; // copy of stock given to readers, null after a change
+    @JsonIgnore
+    private int stockNumbers; // guarded by this shop, the stock number the next stock added gets
 
+    @JsonIgnore
+    private final OrderBook orders = new OrderBook();
 
+    // Set while the stock still lives in a catalog file, the objects created from it so far are kept in loadedStock
     @JsonIgnore
-    private List<Order> orders;
+    private volatile StockSource stockSource;
+    @JsonIgnore
+    private HashMap<Integer, ItemStock> loadedStock; // guarded by this shop
 
-    private double revenue;
+    private volatile long revenue; // minor units (see Money), changed by compare-and-set only
     
-    private Address address;
+    private volatile Address address;
+
+    private static final IdAllocator ids = new IdAllocator(40_000); // range 40_001 - 49_999, 140_001 - 149_999, ...
 
-    private static int currentId = 40_000; // range 40_000 - 49_999
+    private static final VarHandle REVENUE;
 
+    static {
+        try {
+            REVENUE = MethodHandles.lookup().findVarHandle(Shop.class, "revenue", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Deserializing factory, the snapshot loaders pass an empty stock list and fill it afterwards. The stock is
+    // attached once the shop is built, so that no other thread can see a shop whose fields are not set yet
     @JsonCreator
-    private Shop(
+    public static Shop of(
             @JsonProperty("id") int id,
             @JsonProperty("name")  String name,
             @JsonProperty("stock") List<ItemStock> stock,
             @JsonProperty("revenue") double revenue,
             @JsonProperty("address")  Address address
     ){
+        Shop shop = new Shop(id, name, stock, revenue, address);
+        for (ItemStock itemStock : stock) {
+            if (itemStock.getShop() == null)
+                itemStock.setShop(shop);
+            itemStock.setStockNumber(shop.stockNumbers++);
+        }
+        return shop;
+    }
+
+    private Shop(int id, String name, List<ItemStock> stock, double revenue, Address address) {
         this.id = id;
         this.name = name;
+        this.searchKey = name == null ? null : Utils.searchKey(name);
         this.stock = stock;
-        this.revenue = revenue;
+        this.revenue = Money.toUnits(revenue);
         this.address = address;
-        this.orders = new ArrayList<>();
-        for (ItemStock itemStock : stock) {
-            if (itemStock.getShop() == null)
-                itemStock.setShop(this);
-        }
-        if (id > currentId) currentId = id;
+        ids.restore(id);
     }
 
     public Shop(String name,  Address address) {
-        id = ++currentId;
-        if ((currentId - 49_999) % 100_000 == 0) {
-            currentId += 100_000 - 9999;
-        }
+        id = ids.allocate();
         this.name = name;
-        this.revenue = 0.0;
+        this.searchKey = Utils.searchKey(name);
+        this.revenue = 0;
         this.address = address;
         this.stock = new ArrayList<>();
-        this.orders = new ArrayList<>();
     }
 
 
@@ -74,10 +117,150 @@ public class Shop {
 
     public void setName( String name) {
         this.name = name;
+        this.searchKey = name == null ? null : Utils.searchKey(name);
+    }
+
+    public String searchKey() {
+        return searchKey;
     }
 
+    // Read-only; a snapshot of the stock as it was when asked for
     public List<ItemStock> getStock() {
-        return stock;
+        List<ItemStock> view = stockView;
+        if (view != null) return view;
+        synchronized (this) {
+            if (stockSource != null) loadStock();
+            if (stockView == null) stockView = Collections.unmodifiableList(new ArrayList<>(stock));
+            return stockView;
+        }
+    }
+
+    // Adds stock read by a snapshot loader or the journal, without the catalog events a new item fires
+    public synchronized void attachStock(ItemStock itemStock) {
+        if (stockSource != null) loadStock();
+        itemStock.setShop(this);
+        itemStock.setStockNumber(stockNumbers++);
+        stock.add(itemStock);
+        stockView = null;
+    }
+
+    // Makes the shop read its stock from the source on demand instead of holding it, the stock list must be empty
+    public synchronized void setStockSource(StockSource stockSource) {
+        this.stockSource = stockSource;
+        this.loadedStock = new HashMap<>();
+        stockView = null; // a view taken before would hide the catalog's stock
+    }
+
+    @JsonIgnore
+    public StockSource stockSource() {
+        return stockSource;
+    }
+
+    public ItemStock findStock(int itemStockId) {
+        if (stockSource == null) return findLoaded(itemStockId);
+        synchronized (this) {
+            if (stockSource == null) return findLoaded(itemStockId); // the whole stock was loaded meanwhile
+            ItemStock itemStock = loadedStock.get(itemStockId);
+            if (itemStock == null) {
+                itemStock = stockSource.loadStock(this, itemStockId);
+                if (itemStock != null) {
+                    loadedStock.put(itemStockId, itemStock);
+                    StockRegistry.register(itemStock);
+                }
+            }
+            return itemStock;
+        }
+    }
+
+    private ItemStock findLoaded(int itemStockId) {
+        for (ItemStock itemStock : getStock()) {
+            if (itemStock.getId() == itemStockId) return itemStock;
+        }
+        return null;
+    }
+
+    public int stockCount() {
+        StockSource source = stockSource;
+        return source == null ? getStock().size() : source.stockCount(this);
+    }
+
+    // Visits every stock with its current values, without creating objects for stock that is still in the source.
+    // Stock still in the source is visited under the shop's lock, so the visitor must not take other locks.
+    public void forEachStock(StockSource.StockVisitor visitor) throws IOException {
+        if (stockSource == null) {
+            visitLoaded(visitor);
+            return;
+        }
+        synchronized (this) {
+            if (stockSource == null) {
+                visitLoaded(visitor);
+                return;
+            }
+            stockSource.forEachStock(this, (id, name, price, quantity) -> {
+                ItemStock loaded = loadedStock.get(id);
+                if (loaded == null) visitor.visit(id, name, price, quantity);
+                else visitor.visit(id, loaded.getItem().getName(), loaded.getPrice(), loaded.getQuantity());
+            });
+        }
+    }
+
+    private void visitLoaded(StockSource.StockVisitor visitor) throws IOException {
+        for (ItemStock itemStock : getStock()) {
+            visitor.visit(itemStock.getId(), itemStock.getItem().getName(), itemStock.getPrice(), itemStock.getQuantity());
+        }
+    }
+
+    // Up to limit stock with a stock number above afterNumber, in stock order; -1 starts from the first stock.
+    // New stock is appended with a number above every other and removing stock keeps the order, so the stock is
+    // always in stock number order. Snapshots and the catalog keep the order, and the numbers are given again from 0
+    // when the stock is loaded, which is also the position of a stock still in the catalog. Only the returned stock
+    // is loaded.
+    public List<ItemStock> stockAfter(int afterNumber, int limit) throws IOException {
+        List<ItemStock> result = new ArrayList<>();
+        List<Integer> ids = stockSource == null ? null : sourceIdsAfter(afterNumber, limit);
+        if (ids == null) {
+            List<ItemStock> stock = getStock();
+            int low = 0;
+            int high = stock.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (stock.get(mid).getStockNumber() <= afterNumber) low = mid + 1;
+                else high = mid;
+            }
+            result.addAll(stock.subList(low, stock.size() - low <= limit ? stock.size() : low + limit));
+            return result;
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            ItemStock itemStock = findStock(ids.get(i));
+            if (itemStock == null) continue; // removed once the whole stock was loaded
+            itemStock.setStockNumber(afterNumber + 1 + i); // the number loading the whole stock gives it
+            result.add(itemStock);
+        }
+        return result;
+    }
+
+    // Ids of up to limit stock of the source after position afterNumber, null if the stock is loaded already
+    private synchronized List<Integer> sourceIdsAfter(int afterNumber, int limit) throws IOException {
+        if (stockSource == null) return null;
+        List<Integer> ids = new ArrayList<>();
+        int[] position = {0};
+        stockSource.forEachStock(this, (id, name, price, quantity) -> {
+            if (position[0]++ > afterNumber && ids.size() < limit) ids.add(id);
+        });
+        return ids;
+    }
+
+    // Called with the shop locked
+    private void loadStock() {
+        for (ItemStock itemStock : stockSource.loadStock(this)) {
+            ItemStock kept = loadedStock.getOrDefault(itemStock.getId(), itemStock);
+            StockRegistry.register(kept);
+            kept.setStockNumber(stockNumbers++);
+            stock.add(kept);
+        }
+        stockView = null;
+        stockSource = null;
+        loadedStock = null;
     }
 
     public int getId() {
@@ -85,7 +268,7 @@ public class Shop {
     }
 
     public double getRevenue() {
-        return revenue;
+        return Money.toAmount(revenue);
     }
 
     public  Address getAddress() {
@@ -97,11 +280,16 @@ public class Shop {
     }
 
     public void setRevenue(double revenue) {
-        this.revenue = Math.max(revenue, 0.0);
+        this.revenue = Math.max(Money.toUnits(revenue), 0);
     }
 
-    public void increaseRevenue(double amount) {
-        revenue += amount;
+    public void creditRevenue(long units) {
+        REVENUE.getAndAdd(this, units);
+    }
+
+    // Empties the revenue and returns the units it held, in one step so no concurrent credit is lost
+    public long takeRevenue() {
+        return (long) REVENUE.getAndSet(this, 0L);
     }
 
     public List<Order> takeShopOrdersReadyToTake() {
@@ -110,7 +298,7 @@ public class Shop {
                 .toList();
     }
 
-    public List<Order> getOrders() {
+    public OrderBook getOrders() {
         return orders;
     }
 
@@ -120,19 +308,35 @@ public class Shop {
 
     public void withdraw(Customer customer, double amount) {
         if (customer.getOwnedShop().equals(this)) { // check customer to ensure only shop owner can withdraw
-            revenue -= amount;
-            customer.addBalance(amount);
+            long units = Money.toUnits(amount);
+            long current;
+            do {
+                current = revenue;
+                if (units <= 0 || current < units) return;
+            } while (!REVENUE.compareAndSet(this, current, current - units));
+            customer.credit(units);
         }
     }
 
-    public void addItem(String itemName, double price, int quantity) {
-        this.stock.add(new ItemStock(new Item(itemName), price, quantity, this));
+    public synchronized ItemStock addItem(String itemName, double price, int quantity) {
+        if (stockSource != null) loadStock();
+        ItemStock itemStock = new ItemStock(new Item(itemName), price, quantity, this);
+        StockRegistry.register(itemStock);
+        itemStock.setStockNumber(stockNumbers++);
+        stock.add(itemStock);
+        stockView = null;
+        CatalogEvents.stockAdded(this, itemStock);
+        return itemStock;
     }
 
-    public boolean removeItem(int itemId) {
+    public synchronized boolean removeItem(int itemId) {
+        if (stockSource != null) loadStock();
         for (int i = 0; i < stock.size(); i++) {
             if (stock.get(i).getId() == itemId) {
-                stock.remove(i);
+                ItemStock removed = stock.remove(i);
+                stockView = null;
+                StockRegistry.unregister(removed);
+                CatalogEvents.stockRemoved(this, removed);
                 return true;
             }
         }
@@ -140,8 +344,8 @@ public class Shop {
     }
 
     public void acceptOrder(Order order) {
-        if (order != null && order.getShop() == this && order.getOrderState() == OrderState.CREATED) {
-            order.setOrderState(OrderState.SHOP_ACCEPTED);
+        if (order != null && order.getShop() == this && order.changeState(OrderState.CREATED, OrderState.SHOP_ACCEPTED)) {
+            OrderEvents.orderChanged(order);
         }
     }
 
@@ -155,7 +359,7 @@ public class Shop {
 
     private String stockToString() {
         StringBuilder sb = new StringBuilder();
-        for (ItemStock itemStock : stock) {
+        for (ItemStock itemStock : getStock()) {
             sb.append(itemStock.toString()).append("\n");
         }
         return sb.toString();
@@ -0,0 +1,29 @@
+package Shop;
+
+import Item.ItemStock;
+
+import java.io.IOException;
+import java.util.List;
+
+// Supplies the stock of shops whose ItemStock objects have not been created yet.
+// A shop backed by a source creates a stock object only when it is asked for that stock, and all of them the first
+// time its whole stock list is needed. Until then the source is the only copy of the values.
+public interface StockSource {
+    // New objects for every stock of the shop, in the order they were saved
+    List<ItemStock> loadStock(Shop shop);
+
+    // A new object for one stock of the shop, null if the shop does not sell it
+    ItemStock loadStock(Shop shop, int itemStockId);
+
+    int stockCount(Shop shop);
+
+    // Id of the shop selling the stock, 0 if the source does not know it
+    int shopOf(int itemStockId);
+
+    // Walks the stock of the shop without creating objects for it
+    void forEachStock(Shop shop, StockVisitor visitor) throws IOException;
+
+    interface StockVisitor {
+        void visit(int id, String name, double price, int quantity) throws IOException;
+    }
+}
@@ -4,9 +4,11 @@ import Item.Cart;
 import Item.CartItem;
 import Item.ItemStock;
 import Order.Order;
+import Order.OrderEvents;
 import Order.OrderState;
 import Shop.Shop;
 import Utils.Address;
+import Utils.Money;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -16,12 +18,13 @@ import java.util.List;
 
 public class Customer extends User {
      @JsonIgnore
-    private Cart cart;
+    private Cart cart; // guarded by this customer
 
-    private Shop ownedShop;
+    private volatile Shop ownedShop;
 
+    // Public so the binary snapshot codec can restore a customer with its saved id
     @JsonCreator
-    private Customer(
+    public Customer(
             @JsonProperty("id") int id,
             @JsonProperty("username") String username,
             @JsonProperty("password") String password,
@@ -42,7 +45,7 @@ public class Customer extends User {
         this.ownedShop = null;
     }
 
-    public  Cart getCart() {
+    public synchronized Cart getCart() {
         return cart;
     }
 
@@ -54,27 +57,26 @@ public class Customer extends User {
         this.ownedShop = ownedShop;
     }
 
-    public boolean addToCart(ItemStock item, int quantity) {
+    public synchronized boolean addToCart(ItemStock item, int quantity) {
         if (item == null) return false;
 
         this.cart.addToCart(new CartItem(quantity, item));
         return true;
     }
 
-    public void removeFromCart(int cartId, int quantity) {
+    public synchronized void removeFromCart(int cartId, int quantity) {
         this.cart.removeFromCart(cartId, quantity);
     }
 
-    public void removeFromCart(int cartId) {
+    public synchronized void removeFromCart(int cartId) {
         this.cart.removeFromCart(cartId);
     }
 
-    public Cart buy() {
+    public synchronized Cart buy() {
         Cart oldCart = this.cart;
-        if (oldCart.getTotalPrice() > getBalance())
+        if (!debit(oldCart.getTotalUnits()))
             throw new Error("Not enough balance to buy");
         this.cart = new Cart();
-        decreaseBalance(oldCart.getTotalPrice());
         return oldCart;
     }
 
@@ -84,16 +86,14 @@ public class Customer extends User {
     }
 
     public boolean confirmOrder(int orderId, double shop_portion) {
-        Order order = getOrders().stream()
-                .filter(o -> o.getId() == orderId)
-                .findFirst().orElse(null);
+        Order order = getOrders().get(orderId);
 
         if(order == null) return false;
 
-        if (order.getOrderState() != OrderState.DELIVERED) return false;
+        if (!order.changeState(OrderState.DELIVERED, OrderState.CUSTOMER_CONFIRMED)) return false;
 
-        order.setOrderState(OrderState.CUSTOMER_CONFIRMED);
-        order.getShop().increaseRevenue(order.getTotalPrice() * shop_portion);
+        order.getShop().creditRevenue(Money.share(Money.toUnits(order.getTotalPrice()), shop_portion));
+        OrderEvents.orderChanged(order);
 
         return true;
     }
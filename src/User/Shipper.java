@@ -1,6 +1,7 @@
 package User;
 
 import Order.Order;
+import Order.OrderEvents;
 import Order.OrderState;
 import Utils.Address;
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -15,8 +16,9 @@ import java.util.List;
         property = "id"
 )
 public class Shipper extends User {
+    // Public so the binary snapshot codec can restore a shipper with its saved id
     @JsonCreator
-    private Shipper(
+    public Shipper(
             @JsonProperty("id") int id,
             @JsonProperty("username") String username,
             @JsonProperty("password") String password,
@@ -32,37 +34,41 @@ public class Shipper extends User {
         super(username, password, name, phone, address, UserRole.Shipper);
     }
 
-    public void takesOrder(Order order) {
+    // False if the order is not waiting for a shipper, e.g. because another shipper took it first
+    public boolean takesOrder(Order order) {
+            OrderState from = order.getOrderState();
+            if (from != OrderState.SHOP_ACCEPTED && from != OrderState.AT_WAREHOUSE) return false;
+            if (!order.changeState(from, OrderState.SHIPPING)) return false;
             order.setLocation(new Address("Shipping", order.getShop().getAddress().city()));
-            order.setOrderState(OrderState.SHIPPING);
             order.setShipper(this);
             addOrder(order);
+            OrderEvents.orderChanged(order);
+            return true;
     }
 
     public boolean finishesOrder(int orderId, double shipper_fee) {
-        Order order = getOrders().stream()
-                .filter(o -> o.getId() == orderId)
-                .findFirst().orElse(null);
+        Order order = getOrders().get(orderId);
         if (order == null) return false;
-        if (!order.getOrderState().equals(OrderState.SHIPPING)){
-            throw new IllegalArgumentException("Invalid order state");
-        }
-
         if (order.getShipper() != this) {
             throw new IllegalArgumentException("Order does not belong to this shipper");
         }
 
         if (order.getCustomerAddress().city().equals(this.getAddress().city())) {
-            order.setOrderState(OrderState.DELIVERED);
+            if (!order.changeState(OrderState.SHIPPING, OrderState.DELIVERED)) {
+                throw new IllegalArgumentException("Invalid order state");
+            }
             order.setLocation(order.getCustomerAddress());
         } else{
             // simulate shipper as warehouse that auto ship to customer city
-            order.setOrderState(OrderState.AT_WAREHOUSE);
+            if (!order.changeState(OrderState.SHIPPING, OrderState.AT_WAREHOUSE)) {
+                throw new IllegalArgumentException("Invalid order state");
+            }
             order.setLocation(new Address("The warehouse", order.getCustomerAddress().city()));
         }
         addBalance(shipper_fee);
         order.setShipper(null);
-        getOrders().remove(order);
+        getOrders().remove(orderId);
+        OrderEvents.orderChanged(order);
         return true;
     }
 
@@ -1,13 +1,15 @@
 package User;
 import Order.Order;
+import Order.OrderBook;
 import Utils.Address;
-import Utils.Utils;
+import Utils.IdAllocator;
+import Utils.Money;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Objects;
 
 @JsonTypeInfo(
@@ -22,22 +24,32 @@ public abstract class User {
     
     private final String username;
     
-    private String password;
+    private volatile String password;
 
-    private String name;
+    private volatile String name;
 
-    private double balance;
+    private volatile long balance; // minor units (see Money), changed by compare-and-set only
     
-    private String phone;
+    private volatile String phone;
     
-    private Address address;
+    private volatile Address address;
 
     @JsonIgnore
-    private List<Order> orders;
+    private final OrderBook orders = new OrderBook();
 
     private final UserRole role;
 
-    protected static int currentId = 0; // id range from 1 - 9999, 100_000 -> 109_999, ...
+    private static final IdAllocator ids = new IdAllocator(0); // id range from 1 - 9999, 100_001 -> 109_999, ...
+
+    private static final VarHandle BALANCE;
+
+    static {
+        try {
+            BALANCE = MethodHandles.lookup().findVarHandle(User.class, "balance", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     // Constructor for deserialize json in child classes
     User(
@@ -53,15 +65,12 @@ public abstract class User {
         this.username = username;
         this.password = password;
         this.name = name;
-        this.balance = balance;
+        this.balance = Money.toUnits(balance);
         this.phone = phone;
         this.address = address;
         this.role = role;
         this.id = id;
-        if (id > currentId) {
-            currentId = id;
-        }
-        this.orders = new ArrayList<>();
+        ids.restore(id);
     }
 
     // Normal constructor
@@ -76,15 +85,11 @@ public abstract class User {
         this.username = username;
         this.password = password;
         this.name = name;
-        this.balance = 0.0;
+        this.balance = 0;
         this.phone = phone;
         this.address = address;
         this.role = role;
-        if ((currentId + 1) % 10000 == 0) {
-            currentId += 100_000 - 9999;
-        }
-        this.id = ++currentId;
-        this.orders = new ArrayList<>();
+        this.id = ids.allocate();
     }
 
     public  String getName() {
@@ -115,6 +120,11 @@ public abstract class User {
     }
 
     public double getBalance() {
+        return Money.toAmount(balance);
+    }
+
+    @JsonIgnore
+    public long getBalanceUnits() {
         return balance;
     }
 
@@ -140,7 +150,7 @@ public abstract class User {
         this.address = address;
     }
 
-    public List<Order> getOrders() {
+    public OrderBook getOrders() {
         return orders;
     }
 
@@ -152,18 +162,38 @@ public abstract class User {
         return role;
     }
 
+    public void setBalance(double balance) {
+        this.balance = Money.toUnits(balance);
+    }
+
     public void addBalance(double amount) {
-        balance += amount;
+        credit(Money.toUnits(amount));
+    }
+
+    public void credit(long units) {
+        BALANCE.getAndAdd(this, units);
     }
 
-    protected void decreaseBalance(double amount) {
-        balance -= amount;
+    // Takes the units if the balance holds that much, the balance never goes below zero
+    public boolean debit(long units) {
+        long current;
+        do {
+            current = balance;
+            if (current < units) return false;
+        } while (!BALANCE.compareAndSet(this, current, current - units));
+        return true;
     }
 
+    // Takes as much of the amount as the balance holds and returns what was taken
     public double withdraw(double amount) {
-        double possibleAmount = Utils.clamp(amount, 0, balance);
-        balance -= possibleAmount;
-        return possibleAmount;
+        long wanted = Math.max(Money.toUnits(amount), 0);
+        long current;
+        long taken;
+        do {
+            current = balance;
+            taken = Math.min(wanted, current);
+        } while (!BALANCE.compareAndSet(this, current, current - taken));
+        return Money.toAmount(taken);
     }
 
     @Override
@@ -182,7 +212,7 @@ public abstract class User {
     public String toString() {
         return name + "'s info:\n" +
                 "Username: '" + username + '\'' +
-                "\nBalance: " + balance +
+                "\nBalance: " + getBalance() +
                 "\nPhone: '" + phone + '\'' +
                 "\nAddress: " + address;
     }
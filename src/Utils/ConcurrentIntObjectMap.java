@@ -0,0 +1,107 @@
+package Utils;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// IntObjectMap safe to share between threads: the keys are spread over a fixed number of stripes, each an
+// IntObjectMap behind its own read/write lock. Lookups of any keys run in parallel, a change holds one stripe only,
+// and nothing is boxed.
+public final class ConcurrentIntObjectMap<V> {
+    private static final int STRIPE_BITS = 6;
+
+    private final IntObjectMap<V>[] stripes;
+    private final ReadWriteLock[] locks;
+
+    public ConcurrentIntObjectMap() {
+        this(16);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentIntObjectMap(int expectedSize) {
+        stripes = new IntObjectMap[1 << STRIPE_BITS];
+        locks = new ReadWriteLock[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new IntObjectMap<>(Math.max(expectedSize >> STRIPE_BITS, 1));
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public V get(int key) {
+        int stripe = stripe(key);
+        locks[stripe].readLock().lock();
+        try {
+            return stripes[stripe].get(key);
+        } finally {
+            locks[stripe].readLock().unlock();
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    // Returns the value the key had before, null if it had none
+    public V put(int key, V value) {
+        int stripe = stripe(key);
+        locks[stripe].writeLock().lock();
+        try {
+            return stripes[stripe].put(key, value);
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+    }
+
+    // Returns the removed value, null if the key was not there
+    public V remove(int key) {
+        int stripe = stripe(key);
+        locks[stripe].writeLock().lock();
+        try {
+            return stripes[stripe].remove(key);
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+    }
+
+    // Removes the key only while it maps to this very object, false if it did not
+    public boolean remove(int key, V value) {
+        int stripe = stripe(key);
+        locks[stripe].writeLock().lock();
+        try {
+            if (stripes[stripe].get(key) != value) return false;
+            stripes[stripe].remove(key);
+            return true;
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+    }
+
+    // Counted a stripe at a time, so only exact while nothing changes
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            locks[i].readLock().lock();
+            try {
+                size += stripes[i].size();
+            } finally {
+                locks[i].readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (int i = 0; i < stripes.length; i++) {
+            locks[i].writeLock().lock();
+            try {
+                stripes[i].clear();
+            } finally {
+                locks[i].writeLock().unlock();
+            }
+        }
+    }
+
+    // The top bits of the key times the golden ratio, so consecutive ids fall in different stripes
+    private static int stripe(int key) {
+        return (key * 0x9E3779B9) >>> (32 - STRIPE_BITS);
+    }
+}
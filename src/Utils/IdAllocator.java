@@ -0,0 +1,63 @@
+package Utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands out the ids of one entity type. Every type owns the same slice of each 100_000 band, starting at its base:
+// base + 1 to base + 9_999, then base + 100_001 to base + 109_999, and so on, so the type of an id can be told
+// from it. Ids are numbered inside that layout and threads lease the numbers from a shared counter in blocks,
+// allocating from their own block without touching shared state. Numbers left in a block when its thread ends are
+// skipped, so ids are unique and increasing per thread, but neither gap-free nor in the order they were handed
+// out across threads: nothing may order entities by id to find out which came first.
+// The high-water mark is restored from what is loaded: every persisted id is passed to restore.
+public final class IdAllocator {
+    private static final int BAND = 100_000;
+    private static final int PER_BAND = 9_999;
+    private static final int BLOCK_SIZE = 32;
+
+    private final int base;
+    private final AtomicLong next = new AtomicLong(); // first number not leased yet
+    private final AtomicLong floor = new AtomicLong(); // every number handed out from now on is at least this
+    private final ThreadLocal<Block> blocks = ThreadLocal.withInitial(Block::new);
+
+    private static final class Block {
+        long next;
+        long end;
+    }
+
+    public IdAllocator(int base) {
+        this.base = base;
+    }
+
+    public int allocate() {
+        Block block = blocks.get();
+        // a block leased before a restore may lie below the restored ids, what is left of it is dropped
+        while (block.next == block.end || block.next < floor.get()) {
+            block.next = next.getAndAdd(BLOCK_SIZE);
+            block.end = block.next + BLOCK_SIZE;
+        }
+        return toId(block.next++);
+    }
+
+    // Keeps every id handed out from now on above the given one
+    public void restore(int id) {
+        long after = numberAfter(id);
+        if (floor.get() >= after) return; // an id above it was restored before, the usual case while loading
+        // the counter is raised before the floor, so a block leased once the floor is seen is above it
+        next.accumulateAndGet(after, Math::max);
+        floor.accumulateAndGet(after, Math::max);
+    }
+
+    private int toId(long number) {
+        return Math.toIntExact(base + number / PER_BAND * BAND + number % PER_BAND + 1);
+    }
+
+    // Number of the first id of the layout that is greater than the id
+    private long numberAfter(int id) {
+        long band = Math.floorDiv((long) id - base, BAND);
+        long offset = Math.floorMod((long) id - base, BAND);
+        if (band < 0) return 0;
+        if (offset == 0) return band * PER_BAND;
+        if (offset > PER_BAND) return (band + 1) * PER_BAND;
+        return band * PER_BAND + offset;
+    }
+}
@@ -0,0 +1,24 @@
+package Utils;
+
+// Amounts of money are kept as whole minor units (hundredths of a dong) in a long: sums stay exact however many
+// orders go through, and a balance fits in one word that can be changed by compare-and-set. They are still shown,
+// saved and journaled as decimal amounts, so data files keep their format.
+public final class Money {
+    public static final long UNITS = 100; // minor units in one dong
+
+    private Money() {
+    }
+
+    public static long toUnits(double amount) {
+        return Math.round(amount * UNITS);
+    }
+
+    public static double toAmount(long units) {
+        return (double) units / UNITS;
+    }
+
+    // The share (0 to 1) of the units, rounded to the nearest unit
+    public static long share(long units, double share) {
+        return Math.round(units * share);
+    }
+}
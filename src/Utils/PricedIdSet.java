@@ -0,0 +1,195 @@
+package Utils;
+
+import java.util.Arrays;
+
+// Ids ordered by a price and then by id, kept as primitives: no boxing and no node objects per entry.
+// The pairs sit in a list of sorted chunks of at most CHUNK_SIZE entries, each a double and an int array that grow
+// as needed, so a set of a few entries stays small. Adding or removing moves at most one chunk's entries, a full
+// chunk is split in two and a chunk that fits in half of one together with a neighbour is merged into it.
+// Not thread safe.
+public final class PricedIdSet {
+    private static final int CHUNK_SIZE = 512;
+    private static final Chunk[] NO_CHUNKS = new Chunk[0];
+
+    private static final class Chunk {
+        double[] prices = new double[2];
+        int[] ids = new int[2];
+        int size;
+
+        double lastPrice() {
+            return prices[size - 1];
+        }
+
+        int lastId() {
+            return ids[size - 1];
+        }
+
+        // Index of the first entry at or after (price, id), size if there is none
+        int lowerBound(double price, int id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compare(prices[middle], ids[middle], price, id) < 0) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+
+        boolean holds(int at, double price, int id) {
+            return compare(prices[at], ids[at], price, id) == 0;
+        }
+
+        void insert(int at, double price, int id) {
+            if (size == prices.length) {
+                prices = Arrays.copyOf(prices, Math.min(size * 2, CHUNK_SIZE));
+                ids = Arrays.copyOf(ids, prices.length);
+            }
+            System.arraycopy(prices, at, prices, at + 1, size - at);
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            prices[at] = price;
+            ids[at] = id;
+            size++;
+        }
+
+        void delete(int at) {
+            System.arraycopy(prices, at + 1, prices, at, size - at - 1);
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            size--;
+        }
+
+        // Moves the entries from the index on into a new chunk
+        Chunk splitAt(int from) {
+            Chunk right = new Chunk();
+            right.prices = Arrays.copyOfRange(prices, from, CHUNK_SIZE);
+            right.ids = Arrays.copyOfRange(ids, from, CHUNK_SIZE);
+            right.size = size - from;
+            size = from;
+            return right;
+        }
+
+        void append(Chunk other) {
+            if (size + other.size > prices.length) {
+                prices = Arrays.copyOf(prices, Math.min(Math.max(prices.length * 2, size + other.size), CHUNK_SIZE));
+                ids = Arrays.copyOf(ids, prices.length);
+            }
+            System.arraycopy(other.prices, 0, prices, size, other.size);
+            System.arraycopy(other.ids, 0, ids, size, other.size);
+            size += other.size;
+        }
+    }
+
+    // Called for each entry in order, returns false to stop there
+    @FunctionalInterface
+    public interface Visitor {
+        boolean visit(double price, int id);
+    }
+
+    private Chunk[] chunks = NO_CHUNKS;
+    private int chunkCount;
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // False if the pair was already there
+    public boolean add(double price, int id) {
+        if (chunkCount == 0) {
+            Chunk chunk = new Chunk();
+            chunk.insert(0, price, id);
+            insertChunk(0, chunk);
+            size++;
+            return true;
+        }
+        int c = chunkFor(price, id);
+        if (c == chunkCount) c--; // after every entry, goes at the end of the last chunk
+        Chunk chunk = chunks[c];
+        int at = chunk.lowerBound(price, id);
+        if (at < chunk.size && chunk.holds(at, price, id)) return false;
+        if (chunk.size == CHUNK_SIZE) {
+            Chunk right = chunk.splitAt(CHUNK_SIZE / 2);
+            insertChunk(c + 1, right);
+            if (at > chunk.size) {
+                at -= chunk.size;
+                chunk = right;
+            }
+        }
+        chunk.insert(at, price, id);
+        size++;
+        return true;
+    }
+
+    // False if the pair was not there
+    public boolean remove(double price, int id) {
+        int c = chunkFor(price, id);
+        if (c == chunkCount) return false;
+        Chunk chunk = chunks[c];
+        int at = chunk.lowerBound(price, id);
+        if (at == chunk.size || !chunk.holds(at, price, id)) return false;
+        chunk.delete(at);
+        size--;
+        if (c > 0 && chunks[c - 1].size + chunk.size <= CHUNK_SIZE / 2) {
+            chunks[c - 1].append(chunk);
+            deleteChunk(c);
+        } else if (c + 1 < chunkCount && chunk.size + chunks[c + 1].size <= CHUNK_SIZE / 2) {
+            chunk.append(chunks[c + 1]);
+            deleteChunk(c + 1);
+        } else if (chunk.size == 0) {
+            deleteChunk(c);
+        }
+        return true;
+    }
+
+    // Visits the entries in order from (price, id), including it when inclusive, until the visitor stops
+    public void forEachFrom(double price, int id, boolean inclusive, Visitor visitor) {
+        int c = chunkFor(price, id);
+        if (c == chunkCount) return;
+        int at = chunks[c].lowerBound(price, id);
+        if (!inclusive && at < chunks[c].size && chunks[c].holds(at, price, id)) at++;
+        for (; c < chunkCount; c++, at = 0) {
+            Chunk chunk = chunks[c];
+            for (; at < chunk.size; at++) {
+                if (!visitor.visit(chunk.prices[at], chunk.ids[at])) return;
+            }
+        }
+    }
+
+    public void forEach(Visitor visitor) {
+        forEachFrom(Double.NEGATIVE_INFINITY, Integer.MIN_VALUE, true, visitor);
+    }
+
+    // Orders like Double.compare on the prices and then the ids
+    private static int compare(double price, int id, double otherPrice, int otherId) {
+        int byPrice = Double.compare(price, otherPrice);
+        return byPrice != 0 ? byPrice : Integer.compare(id, otherId);
+    }
+
+    // Index of the first chunk whose last entry is at or after (price, id), chunkCount if there is none
+    private int chunkFor(double price, int id) {
+        int low = 0;
+        int high = chunkCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(chunks[middle].lastPrice(), chunks[middle].lastId(), price, id) < 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    private void insertChunk(int at, Chunk chunk) {
+        if (chunkCount == chunks.length) chunks = Arrays.copyOf(chunks, Math.max(1, chunkCount * 2));
+        System.arraycopy(chunks, at, chunks, at + 1, chunkCount - at);
+        chunks[at] = chunk;
+        chunkCount++;
+    }
+
+    private void deleteChunk(int at) {
+        System.arraycopy(chunks, at + 1, chunks, at, chunkCount - at - 1);
+        chunks[--chunkCount] = null;
+    }
+}
@@ -0,0 +1,212 @@
+package Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Prefix tree over names where every node keeps the k best names below it, ranked by score and then by name.
+// A lookup walks down the prefix and returns the list stored where it ends, so it costs O(prefix length) whatever
+// the number of names. Setting or removing a name recomputes the lists on its path only, each from the lists of the
+// children, and stops climbing at the first list that comes out unchanged since nothing above it can change either.
+// Chains of single children are merged into one edge labelled with the whole run, so the tree has at most two nodes
+// per name, and children are kept in arrays sorted by the first character of their label.
+public final class TopKTrie {
+    private static final char[] NO_FIRSTS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final String[] NO_NAMES = new String[0];
+    private static final long[] NO_SCORES = new long[0];
+
+    private static final class Node {
+        String label; // characters on the edge from the parent
+        char[] firsts = NO_FIRSTS; // first character of each child's label
+        Node[] children = NO_CHILDREN;
+        String name; // set when a name ends here
+        long score;
+        String[] top = NO_NAMES;
+        long[] topScores = NO_SCORES;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        Node child(char first) {
+            int at = Arrays.binarySearch(firsts, first);
+            return at >= 0 ? children[at] : null;
+        }
+
+        void addChild(Node child) {
+            int at = -Arrays.binarySearch(firsts, child.label.charAt(0)) - 1;
+            char[] newFirsts = new char[firsts.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(firsts, 0, newFirsts, 0, at);
+            System.arraycopy(children, 0, newChildren, 0, at);
+            newFirsts[at] = child.label.charAt(0);
+            newChildren[at] = child;
+            System.arraycopy(firsts, at, newFirsts, at + 1, firsts.length - at);
+            System.arraycopy(children, at, newChildren, at + 1, children.length - at);
+            firsts = newFirsts;
+            children = newChildren;
+        }
+
+        // Puts the node in place of the child whose label starts with the same character
+        void replaceChild(Node child) {
+            children[Arrays.binarySearch(firsts, child.label.charAt(0))] = child;
+        }
+
+        void removeChild(char first) {
+            int at = Arrays.binarySearch(firsts, first);
+            char[] newFirsts = new char[firsts.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(firsts, 0, newFirsts, 0, at);
+            System.arraycopy(children, 0, newChildren, 0, at);
+            System.arraycopy(firsts, at + 1, newFirsts, at, firsts.length - at - 1);
+            System.arraycopy(children, at + 1, newChildren, at, children.length - at - 1);
+            firsts = newFirsts;
+            children = newChildren;
+        }
+    }
+
+    private final int k;
+    private final Node root = new Node("");
+    private int size;
+
+    public TopKTrie(int k) {
+        if (k <= 0) throw new IllegalArgumentException("k must be positive: " + k);
+        this.k = k;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Adds the name or changes its score
+    public void put(String name, long score) {
+        List<Node> path = new ArrayList<>();
+        path.add(root);
+        Node node = root;
+        int i = 0;
+        while (i < name.length()) {
+            Node child = node.child(name.charAt(i));
+            if (child == null) {
+                child = new Node(name.substring(i));
+                node.addChild(child);
+                path.add(child);
+                node = child;
+                break;
+            }
+            int common = commonPrefix(child.label, name, i);
+            if (common < child.label.length()) {
+                // the name leaves the edge half way, split it there
+                Node middle = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                middle.addChild(child);
+                middle.top = child.top;
+                middle.topScores = child.topScores;
+                node.replaceChild(middle);
+                child = middle;
+            }
+            path.add(child);
+            node = child;
+            i += common;
+        }
+        if (node.name == null) size++;
+        node.name = name;
+        node.score = score;
+        for (int p = path.size() - 1; p >= 0 && rank(path.get(p)); p--) {
+        }
+    }
+
+    public void remove(String name) {
+        List<Node> path = new ArrayList<>();
+        path.add(root);
+        Node node = root;
+        int i = 0;
+        while (i < name.length()) {
+            node = node.child(name.charAt(i));
+            if (node == null || !name.startsWith(node.label, i)) return;
+            path.add(node);
+            i += node.label.length();
+        }
+        if (node.name == null) return;
+        node.name = null;
+        size--;
+
+        int last = path.size() - 1;
+        if (last > 0 && node.children.length == 0) {
+            Node leaf = path.remove(last--);
+            node = path.get(last);
+            node.removeChild(leaf.label.charAt(0));
+        }
+        boolean changed;
+        if (last > 0 && node.name == null && node.children.length == 1) {
+            // a node left with neither a name nor a branch is merged into its only child, whose list is the same
+            Node child = node.children[0];
+            child.label = node.label + child.label;
+            path.get(last - 1).replaceChild(child);
+            path.set(last, child);
+            changed = true;
+        } else {
+            changed = rank(node);
+        }
+        for (int p = last - 1; p >= 0 && changed; p--) {
+            changed = rank(path.get(p));
+        }
+    }
+
+    // The best names starting with the prefix, best first
+    public List<String> top(String prefix) {
+        Node node = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            node = node.child(prefix.charAt(i));
+            if (node == null) return new ArrayList<>();
+            int rest = prefix.length() - i;
+            if (rest <= node.label.length()) {
+                // the prefix ends on this edge
+                return node.label.startsWith(prefix.substring(i)) ? List.of(node.top) : new ArrayList<>();
+            }
+            if (!prefix.startsWith(node.label, i)) return new ArrayList<>();
+            i += node.label.length();
+        }
+        return List.of(node.top);
+    }
+
+    private static int commonPrefix(String label, String name, int from) {
+        int n = Math.min(label.length(), name.length() - from);
+        int i = 0;
+        while (i < n && label.charAt(i) == name.charAt(from + i)) i++;
+        return i;
+    }
+
+    // Recomputes the node's list from its own name and the lists of its children, which are already up to date.
+    // Returns whether the list changed.
+    private boolean rank(Node node) {
+        String[] names = new String[k];
+        long[] scores = new long[k];
+        int count = 0;
+        if (node.name != null) count = offer(names, scores, count, node.name, node.score);
+        for (Node child : node.children) {
+            for (int i = 0; i < child.top.length; i++) {
+                count = offer(names, scores, count, child.top[i], child.topScores[i]);
+            }
+        }
+        if (count == node.top.length && Arrays.equals(names, 0, count, node.top, 0, count)
+                && Arrays.equals(scores, 0, count, node.topScores, 0, count)) return false;
+        node.top = count == k ? names : Arrays.copyOf(names, count);
+        node.topScores = count == k ? scores : Arrays.copyOf(scores, count);
+        return true;
+    }
+
+    // Inserts into the sorted, bounded list if the name ranks high enough, returns the new count
+    private int offer(String[] names, long[] scores, int count, String name, long score) {
+        int at = count;
+        while (at > 0 && (scores[at - 1] < score || scores[at - 1] == score && names[at - 1].compareTo(name) > 0)) at--;
+        if (at == k) return count;
+        int moved = Math.min(count, k - 1) - at;
+        System.arraycopy(names, at, names, at + 1, moved);
+        System.arraycopy(scores, at, scores, at + 1, moved);
+        names[at] = name;
+        scores[at] = score;
+        return Math.min(count + 1, k);
+    }
+}
@@ -0,0 +1,118 @@
+package Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+// Inverted index from every 3-character substring (trigram) of a text to the sorted ids of the texts containing it.
+// A substring query of 3 characters or more only looks at texts holding all of its trigrams: the posting lists are
+// intersected, shortest first, and every candidate is then checked with String.contains, so the result is exactly
+// what a contains() scan over all texts would give. Shorter queries fall back to that scan.
+public final class TrigramIndex {
+    private final HashMap<Integer, String> texts = new HashMap<>();
+    private final HashMap<Long, Postings> postings = new HashMap<>();
+
+    // Indexes the text under the id, replacing what the id had before
+    public void add(int id, String text) {
+        remove(id);
+        texts.put(id, text);
+        for (long trigram : trigrams(text)) {
+            postings.computeIfAbsent(trigram, k -> new Postings()).add(id);
+        }
+    }
+
+    public void remove(int id) {
+        String text = texts.remove(id);
+        if (text == null) return;
+        for (long trigram : trigrams(text)) {
+            Postings list = postings.get(trigram);
+            if (list != null && list.remove(id) && list.size == 0) postings.remove(trigram);
+        }
+    }
+
+    public int size() {
+        return texts.size();
+    }
+
+    // Ids of the texts containing the query, in ascending order
+    public int[] find(String query) {
+        if (query.length() < 3) return scan(query);
+
+        List<Postings> lists = new ArrayList<>();
+        for (long trigram : trigrams(query)) {
+            Postings list = postings.get(trigram);
+            if (list == null) return new int[0];
+            lists.add(list);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        int[] candidates = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+        int count = candidates.length;
+        for (int l = 1; l < lists.size() && count > 0; l++) {
+            Postings list = lists.get(l);
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (list.indexOf(candidates[i]) >= 0) candidates[kept++] = candidates[i];
+            }
+            count = kept;
+        }
+
+        // holding every trigram is not enough ("xaaax" holds all of "aaaa"), confirm each candidate
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            if (texts.get(candidates[i]).contains(query)) candidates[found++] = candidates[i];
+        }
+        return Arrays.copyOf(candidates, found);
+    }
+
+    private int[] scan(String query) {
+        int[] ids = new int[texts.size()];
+        int found = 0;
+        for (Map.Entry<Integer, String> entry : texts.entrySet()) {
+            if (entry.getValue().contains(query)) ids[found++] = entry.getKey();
+        }
+        ids = Arrays.copyOf(ids, found);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static HashSet<Long> trigrams(String text) {
+        HashSet<Long> result = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            result.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+        return result;
+    }
+
+    // Sorted, growable list of ids. Ids mostly arrive in increasing order, so adding is usually an append.
+    private static final class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            int at = size == 0 || ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0 && at < size) return; // already there
+            if (at < 0) at = -at - 1;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = id;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int at = indexOf(id);
+            if (at < 0) return false;
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            size--;
+            return true;
+        }
+
+        int indexOf(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            return at >= 0 ? at : -1;
+        }
+    }
+}
@@ -1,11 +1,24 @@
 package Utils;
 
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
 import java.util.InputMismatchException;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.regex.Pattern;
 
 public final class Utils {
-    private static final Scanner sc = new Scanner(System.in);
+    // Where the prompts read from and the menus print to. A network session puts its connection on the thread
+    // serving it, every other thread talks to System.in and System.out.
+    // charset is the encoding of out, for writers wrapped around it
+    public record Terminal(Scanner in, PrintStream out, Charset charset) {
+    }
+
+    private static final Terminal CONSOLE = new Terminal(new Scanner(System.in), System.out, Charset.defaultCharset());
+    private static final ThreadLocal<Terminal> terminal = ThreadLocal.withInitial(() -> CONSOLE);
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
 
     private Utils() {
     }
@@ -14,13 +27,49 @@ public final class Utils {
         return Math.min(Math.max(value, min), max);
     }
 
+    // The form names are compared in when searching: decomposed (NFD), accents stripped and lower-cased, so a name
+    // typed with or without its diacritics gives the same key. Meant to be computed once per name and kept.
+    public static String searchKey(String text) {
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+        if (!ascii) {
+            text = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+            text = text.replace('\u0111', 'd').replace('\u0110', 'D'); // d with stroke is a letter of its own, not d with a mark
+        }
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    // Runs the action with the prompts and Utils.out() of this thread on the terminal
+    public static void runOn(Terminal session, Runnable action) {
+        terminal.set(session);
+        try {
+            action.run();
+        } finally {
+            terminal.remove();
+        }
+    }
+
+    public static PrintStream out() {
+        return terminal.get().out();
+    }
+
+    public static Charset outCharset() {
+        return terminal.get().charset();
+    }
+
+    public static boolean onConsole() {
+        return terminal.get() == CONSOLE;
+    }
+
     public static String promptInput(String prompt) {
-        System.out.print(prompt);
+        Scanner sc = prompt(prompt);
         return sc.nextLine().trim();
     }
 
     public static Optional<Integer> promptIntInput(String prompt) {
-        System.out.print(prompt);
+        Scanner sc = prompt(prompt);
         try {
             int res = sc.nextInt();
             sc.nextLine();
@@ -32,7 +81,7 @@ public final class Utils {
     }
 
     public static Optional<Double> promptDoubleInput(String prompt) {
-        System.out.print(prompt);
+        Scanner sc = prompt(prompt);
         try {
             double res = sc.nextInt();
             sc.nextLine();
@@ -42,4 +91,12 @@ public final class Utils {
             return Optional.empty();
         }
     }
+
+    // Shows the prompt, with everything printed before it, and returns the input to read the answer from
+    private static Scanner prompt(String prompt) {
+        Terminal current = terminal.get();
+        current.out().print(prompt);
+        current.out().flush();
+        return current.in();
+    }
 }
@@ -0,0 +1,95 @@
+package Item;
+
+import Shop.Shop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Time to find a stock by id the ways SystemManager.getProductById could: listing every stock and scanning it,
+// asking shop after shop, and the StockRegistry's striped int map, from one thread and from eight at once.
+// 100 stock per shop, random existing ids, reported after two warm-up rounds. Every lookup is also checked to
+// find the stock it was given the id of.
+public final class StockRegistryBenchmark {
+    private static final int STOCK_PER_SHOP = 100;
+    private static final int THREADS = 8;
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        for (int size : new int[]{10_000, 100_000, 1_000_000}) {
+            StockRegistry.clear();
+            List<Shop> shops = new ArrayList<>();
+            List<ItemStock> all = new ArrayList<>();
+            for (int s = 0; s < size / STOCK_PER_SHOP; s++) {
+                Shop shop = new Shop("Shop " + s, null);
+                shops.add(shop);
+                for (int k = 0; k < STOCK_PER_SHOP; k++) all.add(shop.addItem("Item " + k, 1, 1));
+            }
+            Random random = new Random(1);
+            ItemStock[] wanted = new ItemStock[10_000];
+            for (int i = 0; i < wanted.length; i++) wanted[i] = all.get(random.nextInt(all.size()));
+            int scans = size >= 1_000_000 ? 200 : 2_000;
+
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < scans; i++) check(scanAll(shops, wanted[i].getId()), wanted[i]);
+                double scanAll = (System.nanoTime() - start) / 1e3 / scans;
+
+                start = System.nanoTime();
+                for (int i = 0; i < scans; i++) check(scanShops(shops, wanted[i].getId()), wanted[i]);
+                double scanShops = (System.nanoTime() - start) / 1e3 / scans;
+
+                start = System.nanoTime();
+                for (int repeat = 0; repeat < 100; repeat++) {
+                    for (ItemStock itemStock : wanted) check(StockRegistry.find(itemStock.getId()), itemStock);
+                }
+                double registry = (System.nanoTime() - start) / 1e3 / (100.0 * wanted.length);
+
+                start = System.nanoTime();
+                List<Future<?>> lookups = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    lookups.add(pool.submit(() -> {
+                        for (int repeat = 0; repeat < 100; repeat++) {
+                            for (ItemStock itemStock : wanted) check(StockRegistry.find(itemStock.getId()), itemStock);
+                        }
+                    }));
+                }
+                for (Future<?> lookup : lookups) lookup.get();
+                double parallel = (System.nanoTime() - start) / 1e3 / (100.0 * wanted.length * THREADS);
+
+                if (round == 2) {
+                    System.out.printf("%,d stocks: getAllItemStocks scan %.1f us, per-shop scan %.1f us, "
+                            + "registry %.3f us, registry from %d threads %.3f us per lookup%n", size, scanAll,
+                            scanShops, registry, THREADS, parallel);
+                }
+            }
+        }
+        StockRegistry.clear();
+        pool.shutdown();
+    }
+
+    // What getProductById did before the registry: every stock of every shop in one list, then a scan
+    private static ItemStock scanAll(List<Shop> shops, int id) {
+        List<ItemStock> all = new ArrayList<>();
+        for (Shop shop : shops) all.addAll(shop.getStock());
+        for (ItemStock itemStock : all) {
+            if (itemStock.getId() == id) return itemStock;
+        }
+        return null;
+    }
+
+    private static ItemStock scanShops(List<Shop> shops, int id) {
+        for (Shop shop : shops) {
+            ItemStock itemStock = shop.findStock(id);
+            if (itemStock != null) return itemStock;
+        }
+        return null;
+    }
+
+    private static void check(ItemStock found, ItemStock wanted) {
+        if (found != wanted) throw new AssertionError("looking up " + wanted.getId() + " found " + found);
+    }
+}
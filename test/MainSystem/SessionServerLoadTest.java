@@ -0,0 +1,121 @@
+package MainSystem;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Many sessions at once against a SessionServer in this JVM: every session logs in, lists its orders and logs out
+// a few times, then exits. Passes when every session saw its greeting, with the accented name intact, after
+// every login. Prints the logins per second and the round trip percentiles.
+// Arguments: sessions and rounds per session, 200 and 5 by default.
+// Run it from an empty directory, the system keeps its files in the working directory. Needs the Jackson jars.
+public final class SessionServerLoadTest {
+    private static final String USERNAME = "loadtest";
+    private static final String PASSWORD = "pw";
+    private static final String NAME = "Ng\u01b0\u1eddi Th\u1eed"; // printed back in the greeting
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        SystemManager system = SystemManager.getInstance();
+        system.registerCustomer(USERNAME, PASSWORD, NAME, "0123456789", null); // false when kept from a last run
+        int port;
+        try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = probe.getLocalPort();
+        }
+        Thread server = new Thread(() -> {
+            try {
+                new SessionServer(system, port).run();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, "session-server");
+        server.setDaemon(true);
+        server.start();
+
+        ExecutorService clients = Executors.newCachedThreadPool();
+        CountDownLatch connected = new CountDownLatch(sessions);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger passed = new AtomicInteger();
+        ConcurrentLinkedQueue<Long> roundTimes = new ConcurrentLinkedQueue<>();
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            running.add(clients.submit(() -> {
+                try (Socket socket = connect(port)) {
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    OutputStream out = socket.getOutputStream();
+                    nextPrompt(in);
+                    connected.countDown();
+                    start.await();
+                    int greeted = 0;
+                    for (int round = 0; round < rounds; round++) {
+                        long begin = System.nanoTime();
+                        for (String line : new String[]{"1", USERNAME, PASSWORD, "3", "exit", "7"}) {
+                            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                            out.flush();
+                            String shown = nextPrompt(in);
+                            if (line.equals(PASSWORD) && shown.contains("Hello " + NAME + "!")) greeted++;
+                        }
+                        roundTimes.add(System.nanoTime() - begin);
+                    }
+                    out.write("3\n".getBytes(StandardCharsets.UTF_8)); // exits the session
+                    out.flush();
+                    in.transferTo(OutputStream.nullOutputStream());
+                    if (greeted == rounds) passed.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        connected.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> session : running) session.get();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        clients.shutdown();
+
+        long[] times = roundTimes.stream().mapToLong(Long::longValue).sorted().toArray();
+        System.out.printf("%d sessions at once, %d logins in %.2f s = %.0f logins/s, round p50 %.2f ms p99 %.2f ms%n",
+                sessions, times.length, seconds, times.length / seconds, times[times.length / 2] / 1e6,
+                times[(int) (times.length * 0.99)] / 1e6);
+        if (passed.get() != sessions) {
+            throw new AssertionError((sessions - passed.get()) + " of " + sessions + " sessions were not greeted");
+        }
+        System.out.println("SessionServerLoadTest passed");
+        System.exit(0); // the server has no way to stop
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    // Everything up to and including the next prompt, which ends with ": "
+    private static String nextPrompt(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int previous = -1;
+        int current;
+        while ((current = in.read()) >= 0) {
+            bytes.write(current);
+            if (previous == ':' && current == ' ') return bytes.toString(StandardCharsets.UTF_8);
+            previous = current;
+        }
+        throw new EOFException("Session closed after: " + bytes.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,116 @@
+package Persistence;
+
+import MainSystem.SystemDataHolder;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// Compressed snapshots read back to exactly the bytes of the plain ones, for both codecs, and a damaged or cut off
+// compressed snapshot is refused, also one whose block length asks for more than a block can take. Also prints
+// the size and the best encode and decode time of either way.
+// Arguments: customers and orders of the sample state, 20000 and 50000 by default.
+// Needs the Jackson jars on the class path.
+public final class CompressedSnapshotTest {
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int orders = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        SystemDataHolder data = SampleData.build(customers, orders);
+
+        for (SnapshotCodec codec : new SnapshotCodec[]{new JsonSnapshotCodec(mapper), new BinarySnapshotCodec()}) {
+            byte[] plain = encode(codec, data, false);
+            byte[] compressed = encode(codec, data, true);
+            check(Arrays.equals(plain, inflate(compressed)), "compressed snapshot reads back differently");
+            checkRefused(damaged(compressed), "a damaged block");
+            checkRefused(hugeLength(compressed), "a block claiming 2 GB");
+            checkRefused(Arrays.copyOf(compressed, compressed.length - 4), "a snapshot without its end marker");
+            checkRefused(Arrays.copyOf(compressed, compressed.length / 2), "half a snapshot");
+
+            System.out.printf("%s: plain %d KB, encode %.0f ms, decode %.0f ms; compressed %d KB, encode %.0f ms, "
+                            + "decode %.0f ms%n", codec.getClass().getSimpleName(),
+                    plain.length / 1024, encodeMillis(codec, data, false), decodeMillis(codec, plain, false),
+                    compressed.length / 1024, encodeMillis(codec, data, true), decodeMillis(codec, compressed, true));
+        }
+        System.out.println("CompressedSnapshotTest passed");
+    }
+
+    private static byte[] encode(SnapshotCodec codec, SystemDataHolder data, boolean compress) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = compress ? new CompressedOutputStream(bytes) : bytes;
+        codec.write(data, out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static InputStream open(byte[] bytes, boolean compressed) throws IOException {
+        InputStream in = new ByteArrayInputStream(bytes);
+        if (!compressed) return in;
+        check(new DataInputStream(in).readInt() == CompressedOutputStream.MAGIC, "compressed snapshot without magic");
+        return new CompressedInputStream(in);
+    }
+
+    private static byte[] inflate(byte[] compressed) throws IOException {
+        try (InputStream in = open(compressed, true)) {
+            return in.readAllBytes();
+        }
+    }
+
+    // Flips one byte a quarter of the way into the blocks, past the magic and the first block header
+    private static byte[] damaged(byte[] compressed) {
+        byte[] copy = compressed.clone();
+        copy[16 + (copy.length - 16) / 4] ^= 0x5A;
+        return copy;
+    }
+
+    // Sets the compressed length of the first block, after the magic and its raw length, far past any real block
+    private static byte[] hugeLength(byte[] compressed) {
+        byte[] copy = compressed.clone();
+        copy[8] = 0x7F;
+        return copy;
+    }
+
+    private static void checkRefused(byte[] compressed, String what) {
+        try {
+            inflate(compressed);
+        } catch (IOException e) {
+            return;
+        }
+        throw new AssertionError(what + " was read without an error");
+    }
+
+    private static double encodeMillis(SnapshotCodec codec, SystemDataHolder data, boolean compress)
+            throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            encode(codec, data, compress);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    private static double decodeMillis(SnapshotCodec codec, byte[] bytes, boolean compressed) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            try (InputStream in = open(bytes, compressed)) {
+                codec.read(in, null);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,80 @@
+package Persistence;
+
+import Item.Item;
+import MainSystem.SystemDataHolder;
+import Order.Order;
+import Order.OrderItem;
+import Order.OrderState;
+import Shop.Shop;
+import User.Customer;
+import User.Shipper;
+import User.User;
+import Utils.Address;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// A generated system state for the snapshot tests: customers, every tenth of them with a shop of ten stock, a few
+// shippers, and orders in every state. Names mix ASCII and Vietnamese, some addresses are missing.
+final class SampleData {
+    private static final String[] PRODUCTS = {
+            "Ph\u1edf b\u00f2", "B\u00e1nh m\u00ec", "Bun cha", "C\u00e0 ph\u00ea s\u1eefa \u0111\u00e1", "Com tam",
+            "G\u1ecfi cu\u1ed1n"
+    };
+
+    private SampleData() {
+    }
+
+    static SystemDataHolder build(int customers, int orders) {
+        Random random = new Random(customers * 31L + orders);
+        Address.City[] cities = Address.City.values();
+        Map<String, User> users = new LinkedHashMap<>();
+        List<Customer> buyers = new ArrayList<>();
+        List<Shop> shops = new ArrayList<>();
+        for (int i = 0; i < customers; i++) {
+            Address address = i % 7 == 0 ? null : new Address("\u0110\u01b0\u1eddng " + i, cities[i % cities.length]);
+            Customer customer = new Customer("user" + i, "pw" + i, "Ng\u01b0\u1eddi d\u00f9ng " + i, "09" + i, address);
+            customer.setBalance(random.nextInt(1_000_000) / 100.0);
+            users.put(customer.getUsername(), customer);
+            buyers.add(customer);
+            if (i % 10 == 0) {
+                Address shopAddress = new Address("Ph\u1ed1 " + i, cities[i % cities.length]);
+                Shop shop = new Shop("C\u1eeda h\u00e0ng " + i, shopAddress);
+                for (int k = 0; k < 10; k++) {
+                    shop.addItem(PRODUCTS[(i + k) % PRODUCTS.length] + " " + k, 1000 + random.nextInt(100_000) / 100.0,
+                            random.nextInt(50));
+                }
+                customer.setOwnedShop(shop);
+                shops.add(shop);
+            }
+        }
+        List<Shipper> shippers = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, customers / 50); i++) {
+            Shipper shipper = new Shipper("shipper" + i, "pw", "Shipper " + i, "08" + i, null);
+            users.put(shipper.getUsername(), shipper);
+            shippers.add(shipper);
+        }
+
+        List<Order> orderList = new ArrayList<>();
+        OrderState[] states = OrderState.values();
+        for (int i = 0; i < orders && !shops.isEmpty(); i++) {
+            Customer customer = buyers.get(random.nextInt(buyers.size()));
+            Shop shop = shops.get(random.nextInt(shops.size()));
+            OrderState state = states[i % states.length];
+            Shipper shipper = state == OrderState.CREATED || state == OrderState.SHOP_ACCEPTED
+                    ? null : shippers.get(i % shippers.size());
+            List<OrderItem> items = new ArrayList<>();
+            for (int k = 0; k <= i % 3; k++) {
+                items.add(new OrderItem(new Item(PRODUCTS[(i + k) % PRODUCTS.length]), 1 + k));
+            }
+            int id = 10_001 + i / 9_999 * 100_000 + i % 9_999; // the order ids' slice of the bands
+            orderList.add(new Order(id, new Date(1_700_000_000_000L + i * 60_000L), customer, shop, state, shipper,
+                    shop.getAddress(), 5000 + i, items));
+        }
+        return new SystemDataHolder(users, random.nextInt(100_000) / 100.0, orderList);
+    }
+}
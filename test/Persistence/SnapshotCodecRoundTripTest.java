@@ -0,0 +1,78 @@
+package Persistence;
+
+import MainSystem.SystemDataHolder;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// A snapshot survives both codecs: the JSON written from the sample state, read back by either codec and written as
+// JSON again, is the same document, also after going through the binary codec twice.
+// Needs the Jackson jars on the class path.
+public final class SnapshotCodecRoundTripTest {
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    public static void main(String[] args) throws Exception {
+        JsonSnapshotCodec json = new JsonSnapshotCodec(mapper);
+        BinarySnapshotCodec binary = new BinarySnapshotCodec();
+        SystemDataHolder data = SampleData.build(2_000, 5_000);
+
+        byte[] original = encode(json, data);
+        byte[] viaJson = encode(json, decode(json, original));
+        check(tree(original).equals(tree(viaJson)), "json -> json changed the snapshot");
+
+        byte[] binaryBytes = encode(binary, data);
+        SystemDataHolder fromBinary = decode(binary, binaryBytes);
+        check(tree(original).equals(tree(encode(json, fromBinary))), "binary -> json differs from the original json");
+        SystemDataHolder twiceBinary = decode(binary, encode(binary, fromBinary));
+        check(tree(original).equals(tree(encode(json, twiceBinary))), "binary -> binary changed the snapshot");
+
+        SystemDataHolder small = SampleData.build(0, 0); // one shipper, no shop, stock or order
+        SystemDataHolder smallBack = decode(binary, encode(binary, small));
+        check(smallBack.users().size() == 1 && smallBack.orders().isEmpty(), "a near empty snapshot did not come back");
+
+        System.out.printf("SnapshotCodecRoundTripTest passed: %d users, %d orders, json %d KB, binary %d KB%n",
+                data.users().size(), data.orders().size(), original.length / 1024, binaryBytes.length / 1024);
+    }
+
+    private static byte[] encode(SnapshotCodec codec, SystemDataHolder data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.write(data, out);
+        return out.toByteArray();
+    }
+
+    private static SystemDataHolder decode(SnapshotCodec codec, byte[] bytes) throws IOException {
+        return codec.read(new ByteArrayInputStream(bytes), null);
+    }
+
+    // Loaded users sit in a hash map, so the arrays of the document are compared in id order
+    private static JsonNode tree(byte[] bytes) throws IOException {
+        ObjectNode document = (ObjectNode) mapper.readTree(bytes);
+        for (Iterator<Map.Entry<String, JsonNode>> it = document.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = it.next();
+            if (!field.getValue().isArray()) continue;
+            List<JsonNode> elements = new ArrayList<>();
+            field.getValue().forEach(elements::add);
+            elements.sort(Comparator.comparingInt(element -> element.path("id").asInt()));
+            ArrayNode sorted = mapper.createArrayNode();
+            sorted.addAll(elements);
+            field.setValue(sorted);
+        }
+        return document;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
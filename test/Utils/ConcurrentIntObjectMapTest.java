@@ -0,0 +1,64 @@
+package Utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Threads changing the same ConcurrentIntObjectMap at once, each on its own keys spread over every stripe, each
+// checked against its own HashMap after every step; the keys of the threads share stripes, so stripes resize and
+// shift entries while other threads read them. The map ends with exactly the keys the threads kept.
+public final class ConcurrentIntObjectMapTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 500_000;
+
+    public static void main(String[] args) throws Exception {
+        ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<HashMap<Integer, Integer>>> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            threads.add(pool.submit(() -> {
+                Random random = new Random(thread);
+                HashMap<Integer, Integer> expected = new HashMap<>();
+                for (int i = 0; i < OPERATIONS; i++) {
+                    int key = random.nextInt(20_000) * THREADS + thread;
+                    Integer value = i;
+                    switch (random.nextInt(4)) {
+                        case 0 -> check(Objects.equals(map.put(key, value), expected.put(key, value)), "put", key);
+                        case 1 -> check(Objects.equals(map.remove(key), expected.remove(key)), "remove", key);
+                        case 2 -> {
+                            Integer current = expected.get(key);
+                            boolean removed = current != null && random.nextBoolean();
+                            // a different object with the same value must not remove the key
+                            check(map.remove(key, removed ? current : Integer.valueOf(-1)) == removed, "remove same",
+                                    key);
+                            if (removed) expected.remove(key);
+                        }
+                        default -> check(Objects.equals(map.get(key), expected.get(key)), "get", key);
+                    }
+                }
+                return expected;
+            }));
+        }
+        int kept = 0;
+        for (Future<HashMap<Integer, Integer>> thread : threads) {
+            for (Map.Entry<Integer, Integer> entry : thread.get().entrySet()) {
+                check(map.get(entry.getKey()) == entry.getValue(), "final get", entry.getKey());
+                kept++;
+            }
+        }
+        pool.shutdown();
+        check(map.size() == kept, "size", kept);
+        System.out.println("ConcurrentIntObjectMapTest passed: " + kept + " keys left");
+    }
+
+    private static void check(boolean condition, String operation, int key) {
+        if (!condition) throw new AssertionError(operation + " of key " + key + " disagrees with HashMap");
+    }
+}
@@ -0,0 +1,125 @@
+package Utils;
+
+import Item.ItemStock;
+import Shop.Shop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Many sessions creating entities at once: every id is unique, inside its type's slice of the bands, above the
+// restored high-water mark and increasing within each thread, and a shop's stock keeps the order it was added in
+// whatever its ids.
+public final class IdAllocatorStressTest {
+    private static final int THREADS = 16;
+    private static final int PER_THREAD = 50_000;
+
+    public static void main(String[] args) throws Exception {
+        allocatesUniqueIds();
+        restoreKeepsLaterIdsAbove();
+        shopStockStaysInAddedOrder();
+        System.out.println("IdAllocatorStressTest passed");
+    }
+
+    private static void allocatesUniqueIds() throws Exception {
+        IdAllocator ids = new IdAllocator(30_000);
+        ids.restore(30_500);
+        int[][] allocated = new int[THREADS][PER_THREAD];
+        runConcurrently(thread -> {
+            int previous = Integer.MIN_VALUE;
+            for (int i = 0; i < PER_THREAD; i++) {
+                int id = ids.allocate();
+                check(id > previous, "ids of one thread go down: " + previous + " then " + id);
+                allocated[thread][i] = id;
+                previous = id;
+            }
+        });
+
+        int[] all = Arrays.stream(allocated).flatMapToInt(Arrays::stream).sorted().toArray();
+        check(all[0] > 30_500, "id " + all[0] + " handed out after restore(30_500)");
+        for (int i = 0; i < all.length; i++) {
+            int offset = all[i] % 100_000;
+            check(offset > 30_000 && offset < 40_000, "id " + all[i] + " is outside the stock slice");
+            check(i == 0 || all[i] != all[i - 1], "id " + all[i] + " handed out twice");
+        }
+        // only what is left of the last block of each thread is skipped
+        int span = layoutNumber(all[all.length - 1]) - layoutNumber(30_500);
+        check(span <= THREADS * (PER_THREAD + 32), "ids spread over " + span + " numbers of the layout");
+    }
+
+    private static void restoreKeepsLaterIdsAbove() throws Exception {
+        IdAllocator ids = new IdAllocator(30_000);
+        ids.restore(139_999);
+        check(ids.allocate() == 230_001, "restore(139_999) is not followed by 230_001");
+        ids.restore(30_001);
+        check(ids.allocate() == 230_002, "restoring a lower id moved the counter");
+
+        // restores racing allocations: what is allocated after a restore returns is above the restored id
+        runConcurrently(thread -> {
+            for (int i = 0; i < 1_000; i++) {
+                int id = ids.allocate() + 100_000;
+                ids.restore(id);
+                int next = ids.allocate();
+                check(next > id, "allocated " + next + " after restore(" + id + ")");
+            }
+        });
+    }
+
+    private static void shopStockStaysInAddedOrder() throws Exception {
+        Shop shop = new Shop("Stress shop", null);
+        runConcurrently(thread -> {
+            for (int i = 0; i < 500; i++) {
+                shop.addItem("Item " + thread + "-" + i, 1.0, 1);
+            }
+        });
+        List<ItemStock> stock = shop.getStock();
+        check(stock.size() == THREADS * 500, "shop holds " + stock.size() + " stock");
+        for (int i = 1; i < stock.size(); i++) {
+            check(stock.get(i).getStockNumber() == i, "stock " + i + " has number " + stock.get(i).getStockNumber());
+        }
+        check(shop.stockAfter(-1, 10).equals(stock.subList(0, 10)), "stockAfter(-1) does not start at the first stock");
+        List<ItemStock> page = shop.stockAfter(stock.get(99).getStockNumber(), 10);
+        check(page.equals(stock.subList(100, 110)), "stockAfter does not continue after the given stock");
+        // the page goes on after a stock that was removed since it was shown
+        shop.removeItem(stock.get(99).getId());
+        page = shop.stockAfter(stock.get(99).getStockNumber(), 10);
+        check(page.equals(stock.subList(100, 110)), "stockAfter does not continue after a removed stock");
+    }
+
+    // Position of a stock id in the layout, 30_001 is 0
+    private static int layoutNumber(int id) {
+        return id / 100_000 * 9_999 + id % 100_000 - 30_001;
+    }
+
+    private interface Work {
+        void run(int thread) throws Exception;
+    }
+
+    private static void runConcurrently(Work work) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> running = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                running.add(executor.submit(() -> {
+                    start.await();
+                    work.run(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : running) future.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
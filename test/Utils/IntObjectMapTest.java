@@ -0,0 +1,40 @@
+package Utils;
+
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.Random;
+
+// IntObjectMap against HashMap over millions of random puts, gets and removes, with keys that collide in the low
+// bits and negative keys, so probing and the backward shift on removal are exercised across resizes.
+public final class IntObjectMapTest {
+    private static final int OPERATIONS = 3_000_000;
+
+    public static void main(String[] args) {
+        Random random = new Random(7);
+        IntObjectMap<Integer> map = new IntObjectMap<>();
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            int key = random.nextInt(5_000) * (random.nextBoolean() ? 1 : -65_536);
+            switch (random.nextInt(3)) {
+                case 0 -> check(Objects.equals(map.put(key, i), expected.put(key, i)), "put", key, i);
+                case 1 -> check(Objects.equals(map.remove(key), expected.remove(key)), "remove", key, i);
+                default -> check(Objects.equals(map.get(key), expected.get(key)), "get", key, i);
+            }
+            check(map.size() == expected.size(), "size", key, i);
+            if (i == OPERATIONS / 2) {
+                map.clear();
+                expected.clear();
+            }
+        }
+        for (Integer key : expected.keySet()) {
+            check(map.containsKey(key), "containsKey", key, OPERATIONS);
+        }
+        System.out.println("IntObjectMapTest passed: " + map.size() + " keys left");
+    }
+
+    private static void check(boolean condition, String operation, int key, int step) {
+        if (!condition) {
+            throw new AssertionError(operation + " of key " + key + " disagrees with HashMap at step " + step);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package Utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+// PricedIdSet against a TreeSet of the same pairs over random adds, removes and walks from random points, with few
+// distinct prices so ties are decided by id, and enough entries that chunks are split and merged again.
+public final class PricedIdSetTest {
+    private static final int OPERATIONS = 1_000_000;
+
+    private record Pair(double price, int id) {
+    }
+
+    private static final Comparator<Pair> ORDER = Comparator.comparingDouble(Pair::price).thenComparingInt(Pair::id);
+
+    public static void main(String[] args) {
+        Random random = new Random(11);
+        PricedIdSet set = new PricedIdSet();
+        TreeSet<Pair> expected = new TreeSet<>(ORDER);
+        for (int i = 0; i < OPERATIONS; i++) {
+            // grows for the first half of the run and shrinks back in the second
+            boolean growing = i < OPERATIONS / 2;
+            Pair pair = new Pair(random.nextInt(200) / 4.0, random.nextInt(20_000) - 10_000);
+            switch (random.nextInt(8)) {
+                case 0, 1, 2 -> {
+                    if (growing) check(set.add(pair.price(), pair.id()) == expected.add(pair), "add", pair, i);
+                    else check(set.remove(pair.price(), pair.id()) == expected.remove(pair), "remove", pair, i);
+                }
+                case 3 -> check(set.remove(pair.price(), pair.id()) == expected.remove(pair), "remove", pair, i);
+                case 4 -> check(set.add(pair.price(), pair.id()) == expected.add(pair), "add", pair, i);
+                case 5 -> {
+                    boolean inclusive = random.nextBoolean();
+                    check(walk(set, pair, inclusive, 50).equals(first(expected.tailSet(pair, inclusive), 50)), "walk",
+                            pair, i);
+                }
+                default -> {
+                    if (expected.isEmpty()) break;
+                    Pair existing = expected.ceiling(pair) != null ? expected.ceiling(pair) : expected.first();
+                    check(set.remove(existing.price(), existing.id()) == expected.remove(existing), "remove", existing,
+                            i);
+                }
+            }
+            check(set.size() == expected.size(), "size", pair, i);
+        }
+        List<Pair> all = new ArrayList<>();
+        set.forEach((price, id) -> all.add(new Pair(price, id)));
+        check(all.equals(new ArrayList<>(expected)), "forEach", null, OPERATIONS);
+        System.out.println("PricedIdSetTest passed: " + set.size() + " pairs left");
+    }
+
+    private static List<Pair> walk(PricedIdSet set, Pair from, boolean inclusive, int limit) {
+        List<Pair> result = new ArrayList<>();
+        set.forEachFrom(from.price(), from.id(), inclusive, (price, id) -> {
+            result.add(new Pair(price, id));
+            return result.size() < limit;
+        });
+        return result;
+    }
+
+    private static List<Pair> first(Iterable<Pair> pairs, int limit) {
+        List<Pair> result = new ArrayList<>();
+        for (Pair pair : pairs) {
+            if (result.size() == limit) break;
+            result.add(pair);
+        }
+        return result;
+    }
+
+    private static void check(boolean condition, String operation, Pair pair, int step) {
+        if (!condition) throw new AssertionError(operation + " of " + pair + " disagrees with TreeSet at step " + step);
+    }
+}
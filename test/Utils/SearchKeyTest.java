@@ -0,0 +1,120 @@
+package Utils;
+
+import Item.Item;
+import Shop.Shop;
+
+import java.util.Random;
+
+// Utils.searchKey folds case and Vietnamese accents (d with stroke included) and leaves everything else alone, and
+// Item and Shop keep their key in step with their name. Then times folding and matching over 200,000 mixed
+// ASCII and accented names: scans over raw names, precomputed keys and keys folded per comparison, and trigram
+// queries over raw names and over keys.
+public final class SearchKeyTest {
+    private static final int NAMES = 200_000;
+
+    public static void main(String[] args) {
+        folds();
+        keysFollowNames();
+        benchmark();
+        System.out.println("SearchKeyTest passed");
+    }
+
+    private static void folds() {
+        expect("Ph\u1edf B\u00f2 \u0110\u1eb7c Bi\u1ec7t", "pho bo dac biet");
+        expect("CAF\u00c9 S\u1eeeA \u0110\u00c1", "cafe sua da");
+        expect("\u0111\u01b0\u1eddng", "duong");
+        expect("Cafe", "cafe");
+        expect("Cafe\u0301", "cafe"); // e followed by a combining acute accent
+        expect("N\u01b0\u1edbc m\u1eafm 500ml", "nuoc mam 500ml");
+        expect("", "");
+        expect("Tea & Co. #1", "tea & co. #1");
+        expect("\u65e5\u672c\u8336", "\u65e5\u672c\u8336"); // no marks to strip
+        check(Utils.searchKey("Ph\u1edf b\u00f2").contains(Utils.searchKey("PHO")), "folded query does not match");
+    }
+
+    private static void keysFollowNames() {
+        Item item = new Item("B\u00c1NH M\u00cc");
+        check(item.searchKey().equals("banh mi"), "item key " + item.searchKey());
+        item.setName("X\u00f4i g\u00e0");
+        check(item.searchKey().equals("xoi ga"), "item key after rename " + item.searchKey());
+        Shop shop = new Shop("Qu\u00e1n \u0110\u00f4ng", null);
+        check(shop.searchKey().equals("quan dong"), "shop key " + shop.searchKey());
+        shop.setName("Ti\u1ec7m M\u1edbi");
+        check(shop.searchKey().equals("tiem moi"), "shop key after rename " + shop.searchKey());
+    }
+
+    private static void benchmark() {
+        String[] products = {"Ph\u1edf b\u00f2", "B\u00e1nh m\u00ec", "Bun cha", "C\u00e0 ph\u00ea s\u1eefa", "Com tam",
+                "Ch\u00e8 ba m\u00e0u", "Hu tieu", "G\u1ecfi cu\u1ed1n"};
+        String[] queries = {"Bun", "ph\u1edf", "sua", "cha", "tam", "cuon"};
+        Random random = new Random(1);
+        String[] names = new String[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            names[i] = products[random.nextInt(products.length)] + " " + Integer.toString(random.nextInt(), 36);
+        }
+
+        long sink = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            String[] keys = new String[NAMES];
+            for (int i = 0; i < NAMES; i++) keys[i] = Utils.searchKey(names[i]);
+            double fold = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            for (String query : queries) {
+                for (String name : names) if (name.contains(query)) sink++;
+            }
+            double raw = (System.nanoTime() - start) / 1e6 / queries.length;
+
+            start = System.nanoTime();
+            for (String query : queries) {
+                String key = Utils.searchKey(query);
+                for (String name : keys) if (name.contains(key)) sink++;
+            }
+            double precomputed = (System.nanoTime() - start) / 1e6 / queries.length;
+
+            start = System.nanoTime();
+            for (String query : queries) {
+                String key = Utils.searchKey(query);
+                for (String name : names) if (Utils.searchKey(name).contains(key)) sink++;
+            }
+            double perComparison = (System.nanoTime() - start) / 1e6 / queries.length;
+
+            TrigramIndex rawIndex = new TrigramIndex();
+            TrigramIndex keyIndex = new TrigramIndex();
+            for (int i = 0; i < NAMES; i++) {
+                rawIndex.add(i, names[i]);
+                keyIndex.add(i, keys[i]);
+            }
+            long rawMatches = 0;
+            long keyMatches = 0;
+            start = System.nanoTime();
+            for (int repeat = 0; repeat < 100; repeat++) {
+                for (String query : queries) rawMatches += rawIndex.find(query).length;
+            }
+            double rawQuery = (System.nanoTime() - start) / 1e6 / 100 / queries.length;
+            start = System.nanoTime();
+            for (int repeat = 0; repeat < 100; repeat++) {
+                for (String query : queries) keyMatches += keyIndex.find(Utils.searchKey(query)).length;
+            }
+            double keyQuery = (System.nanoTime() - start) / 1e6 / 100 / queries.length;
+            check(keyMatches >= rawMatches, "folded queries match fewer names than raw ones");
+
+            if (round == 2) {
+                System.out.printf("%,d names: folding every name %.0f ms; scan per query: raw contains %.2f ms, "
+                                + "precomputed keys %.2f ms, folding per comparison %.2f ms; trigram query: raw names "
+                                + "%.2f ms (%d matches), folded keys %.2f ms (%d matches)%n", NAMES, fold, raw,
+                        precomputed, perComparison, rawQuery, rawMatches / 100, keyQuery, keyMatches / 100);
+            }
+        }
+        if (sink == 42) System.out.println(); // keeps the scans from being optimized away
+    }
+
+    private static void expect(String name, String key) {
+        check(Utils.searchKey(name).equals(key), "searchKey(\"" + name + "\") is \"" + Utils.searchKey(name) + '"');
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}